@@ -0,0 +1,78 @@
+package jenkins.plugins.zulip;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link FormBodyPublisher} with building the body as a string and encoding it to bytes afterwards, as
+ * {@code HttpRequest.BodyPublishers.ofString} does. Only compiled in the {@code benchmark} Maven profile, start
+ * {@link #main(String[])} with its test classpath and add {@code -prof gc} to JMH options to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormBodyPublisherBenchmark {
+
+    @Param({ "200", "20000" })
+    public int contentLength;
+
+    private Map<String, String> parameters;
+
+    @Setup
+    public void setUp() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < contentLength) {
+            content.append("* [JENKINS-1234](https://issues.jenkins.io/browse/JENKINS-1234) Fix build - Jiří Novák\n");
+        }
+        parameters = new HashMap<>();
+        parameters.put("api-key", "secret");
+        parameters.put("email", "jenkins-bot@zulip.com");
+        parameters.put("type", "stream");
+        parameters.put("to", "jenkins");
+        parameters.put("subject", "folder » job");
+        parameters.put("content", content.substring(0, contentLength));
+    }
+
+    @Benchmark
+    public byte[] joinedString() {
+        String body = parameters.entrySet().stream()
+                .map(e -> e.getKey() + "=" + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long formBodyPublisher() {
+        FormBodyPublisher publisher = new FormBodyPublisher(parameters);
+        long length = publisher.contentLength();
+        publisher.release();
+        return length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FormBodyPublisherBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,164 @@
+package jenkins.plugins.zulip;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.scm.ChangeLogSet;
+
+/**
+ * Cache of change log author display names.<br/>
+ * Resolving the {@link hudson.model.User} of a change log entry may consult the security realm and read user records
+ * from disk. The user id can't serve as the key, {@link ChangeLogSet.Entry#getAuthor()} is the very call being
+ * avoided. Entries that expose the raw author as recorded by the SCM (like Git change sets do with
+ * {@code getAuthorName()} and {@code getAuthorEmail()}) are resolved once per change log type, author and time to
+ * live; other entries are resolved every time. The cache is bounded, least recently used authors are evicted first.
+ */
+public class AuthorCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AuthorCache.class.getName());
+
+    private static final AuthorCache INSTANCE = new AuthorCache(1000, TimeUnit.HOURS.toMillis(1));
+
+    private static final ClassValue<Method> authorNameMethods = new StringGetter("getAuthorName");
+
+    private static final ClassValue<Method> authorEmailMethods = new StringGetter("getAuthorEmail");
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, CachedName> names;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    AuthorCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.names = new LinkedHashMap<String, CachedName>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                return size() > AuthorCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The cache shared by all notifications
+     */
+    public static AuthorCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets display name of the author of given change log entry
+     *
+     * @param entry The change log entry
+     * @return The author display name
+     */
+    public String getDisplayName(ChangeLogSet.Entry entry) {
+        String authorKey = getAuthorKey(entry);
+        if (authorKey == null) {
+            misses.incrementAndGet();
+            return entry.getAuthor().getDisplayName();
+        }
+        long now = System.currentTimeMillis();
+        synchronized (names) {
+            CachedName cached = names.get(authorKey);
+            if (cached != null && cached.expiresAt > now) {
+                hits.incrementAndGet();
+                return cached.displayName;
+            }
+        }
+        misses.incrementAndGet();
+        // Resolve outside of the lock, it may be slow
+        String displayName = entry.getAuthor().getDisplayName();
+        synchronized (names) {
+            names.put(authorKey, new CachedName(displayName, now + ttlMillis));
+        }
+        return displayName;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (names) {
+            names.clear();
+        }
+    }
+
+    /**
+     * @return Key of the author as recorded by the SCM, null if the entry does not expose it
+     */
+    private static String getAuthorKey(ChangeLogSet.Entry entry) {
+        String authorName = invoke(authorNameMethods.get(entry.getClass()), entry);
+        if (authorName == null) {
+            return null;
+        }
+        // Change logs of different SCMs may map the same name to different users
+        String authorEmail = invoke(authorEmailMethods.get(entry.getClass()), entry);
+        return entry.getClass().getName() + "\n" + authorName + "\n" + (authorEmail != null ? authorEmail : "");
+    }
+
+    private static String invoke(Method method, ChangeLogSet.Entry entry) {
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (String) method.invoke(entry);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to get author of change log entry", e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds public getter of given name returning String
+     */
+    private static final class StringGetter extends ClassValue<Method> {
+
+        private final String name;
+
+        private StringGetter(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected Method computeValue(Class<?> type) {
+            try {
+                Method method = type.getMethod(name);
+                return method.getReturnType() == String.class ? method : null;
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class CachedName {
+
+        private final String displayName;
+        private final long expiresAt;
+
+        private CachedName(String displayName, long expiresAt) {
+            this.displayName = displayName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package jenkins.plugins.zulip;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hudson.model.Run;
+import hudson.scm.ChangeLogSet;
+
+/**
+ * Renders changes since the last build within a budget.<br/>
+ * Entries are rendered until the entry or character budget is reached; the remaining entries are only counted for
+ * the "+N more" summary, without loading their authors or messages. Change sets backed by a collection are counted
+ * by its size, others by walking their entries. Optionally, the rendered entries are grouped by
+ * author, and authors can be rendered as Zulip mentions. Author names are resolved through the {@link AuthorCache}.
+ */
+public class ChangeLogRenderer {
+
+    private static final String HEADER = "Changes since last build:\n";
+
+    private static final int MAX_COMMIT_MESSAGE_LENGTH = 47;
+
+    private final int maxEntries;
+    private final int maxLength;
+    private final boolean groupByAuthor;
+    private final boolean mentions;
+
+    /**
+     * @param maxEntries    Maximum number of entries to render, 0 for no limit
+     * @param maxLength     Maximum length of the rendered change log, 0 for no limit
+     * @param groupByAuthor Whether to list entries under their author
+     * @param mentions      Whether to mention authors instead of just naming them
+     */
+    public ChangeLogRenderer(int maxEntries, int maxLength, boolean groupByAuthor, boolean mentions) {
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+        this.groupByAuthor = groupByAuthor;
+        this.mentions = mentions;
+    }
+
+    /**
+     * @param build The build
+     * @return The rendered changes, empty if there are none
+     */
+    public String render(Run<?, ?> build) {
+        RunChangeSetWrapper wrapper = new RunChangeSetWrapper(build);
+        if (!wrapper.hasChangeSetComputed()) {
+            return "Could not determine changes since last build.";
+        }
+        if (!wrapper.hasChangeSet()) {
+            return "";
+        }
+        StringBuilder changes = new StringBuilder(HEADER);
+        Map<String, StringBuilder> authors = groupByAuthor ? new LinkedHashMap<>() : null;
+        int length = changes.length();
+        int rendered = 0;
+        int skipped = 0;
+        boolean exhausted = false;
+        for (ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet : wrapper.getChangeSets()) {
+            if (exhausted || maxEntries > 0 && rendered >= maxEntries) {
+                exhausted = true;
+                skipped += count(changeLogSet);
+                continue;
+            }
+            Iterator<? extends ChangeLogSet.Entry> entries = changeLogSet.iterator();
+            while (entries.hasNext()) {
+                if (maxEntries > 0 && rendered >= maxEntries) {
+                    // Budget exhausted, only count the rest
+                    exhausted = true;
+                    skipped += count(entries);
+                    break;
+                }
+                ChangeLogSet.Entry entry = entries.next();
+                String author = formatAuthor(AuthorCache.get().getDisplayName(entry));
+                String commitMsg = truncate(entry.getMsg().trim());
+                if (authors != null) {
+                    StringBuilder authorChanges = authors.get(author);
+                    String line = "\n    * " + commitMsg;
+                    int cost = line.length() + (authorChanges == null ? author.length() + 3 : 0);
+                    if (maxLength > 0 && length + cost > maxLength) {
+                        exhausted = true;
+                        skipped += 1 + count(entries);
+                        break;
+                    }
+                    authors.computeIfAbsent(author, key -> new StringBuilder()).append(line);
+                    length += cost;
+                } else {
+                    String line = "\n* " + author + " " + commitMsg;
+                    if (maxLength > 0 && length + line.length() > maxLength) {
+                        exhausted = true;
+                        skipped += 1 + count(entries);
+                        break;
+                    }
+                    changes.append(line);
+                    length += line.length();
+                }
+                rendered++;
+            }
+        }
+        if (authors != null) {
+            for (Map.Entry<String, StringBuilder> author : authors.entrySet()) {
+                changes.append("\n* ").append(author.getKey()).append(author.getValue());
+            }
+        }
+        if (skipped > 0) {
+            changes.append("\n\n+").append(skipped).append(skipped == 1 ? " more change" : " more changes");
+        }
+        return changes.toString();
+    }
+
+    private static int count(ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet) {
+        if (changeLogSet instanceof Collection) {
+            return ((Collection<?>) changeLogSet).size();
+        }
+        return count(changeLogSet.iterator());
+    }
+
+    private static int count(Iterator<?> entries) {
+        int count = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            count++;
+        }
+        return count;
+    }
+
+    private String formatAuthor(String displayName) {
+        return mentions ? "@**" + displayName + "**" : "`" + displayName + "`";
+    }
+
+    private static String truncate(String commitMsg) {
+        if (commitMsg.length() > MAX_COMMIT_MESSAGE_LENGTH) {
+            return commitMsg.substring(0, MAX_COMMIT_MESSAGE_LENGTH - 1) + "...";
+        }
+        return commitMsg;
+    }
+
+}
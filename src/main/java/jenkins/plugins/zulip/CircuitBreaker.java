@@ -0,0 +1,228 @@
+package jenkins.plugins.zulip;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker guarding one Zulip server.<br/>
+ * While {@link State#CLOSED closed}, outcomes of requests are recorded in a sliding window; when the failure rate
+ * over the window reaches the threshold, the breaker {@link State#OPEN opens} and requests fail immediately instead
+ * of waiting for connection timeouts. After the open duration, a single trial request is let through
+ * ({@link State#HALF_OPEN half-open}); its success closes the breaker, its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * What happens to messages while the breaker is open
+     */
+    public enum OpenPolicy {
+        /** Keep messages in the outbox and send them once the server recovers */
+        OUTBOX,
+        /** Drop messages */
+        DROP;
+
+        public static OpenPolicy fromString(String value) {
+            for (OpenPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+            return OUTBOX;
+        }
+    }
+
+    /**
+     * Signals request that was not sent because the breaker is open
+     */
+    public static class OpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String url) {
+            super("Circuit breaker for Zulip server " + url + " is open");
+        }
+    }
+
+    private final String url;
+    private final int failureRateThreshold;
+    private final long openDurationMillis;
+
+    // Sliding window of the last outcomes, true meaning failure
+    private final boolean[] outcomes;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private volatile Runnable recoveryListener;
+
+    CircuitBreaker(String url, int failureRateThreshold, int windowSize, long openDurationMillis) {
+        this.url = url;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+    }
+
+    /**
+     * Gets the breaker of given Zulip server. The breaker is replaced when its settings change.
+     *
+     * @param url                  The Zulip server url
+     * @param failureRateThreshold Failure rate in percent that opens the breaker
+     * @param windowSize           Number of recent requests the failure rate is computed from
+     * @param openDurationMillis   How long the breaker stays open before a trial request is let through
+     * @param recoveryListener     Registered with the breaker when it is created, see
+     *                             {@link #setRecoveryListener(Runnable)}
+     * @return The breaker
+     */
+    public static CircuitBreaker get(String url, int failureRateThreshold, int windowSize, long openDurationMillis,
+            Runnable recoveryListener) {
+        return breakers.compute(url, (key, breaker) -> {
+            if (breaker != null && breaker.failureRateThreshold == failureRateThreshold
+                    && breaker.outcomes.length == windowSize && breaker.openDurationMillis == openDurationMillis) {
+                return breaker;
+            }
+            CircuitBreaker created = new CircuitBreaker(key, failureRateThreshold, windowSize, openDurationMillis);
+            created.setRecoveryListener(recoveryListener);
+            return created;
+        });
+    }
+
+    /**
+     * @return All breakers, for monitoring
+     */
+    public static Collection<CircuitBreaker> getAll() {
+        return Collections.unmodifiableCollection(breakers.values());
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @param recoveryListener Called when the breaker closes after the server recovered
+     */
+    public void setRecoveryListener(Runnable recoveryListener) {
+        this.recoveryListener = recoveryListener;
+    }
+
+    /**
+     * Tests if a request may be sent now
+     *
+     * @return false if the request should fail immediately
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+                    return false;
+                }
+                LOGGER.log(Level.INFO, "Probing whether Zulip server {0} recovered", url);
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Records successful request
+     */
+    public void onSuccess() {
+        Runnable listener = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                LOGGER.log(Level.INFO, "Zulip server {0} recovered, closing circuit breaker", url);
+                state = State.CLOSED;
+                trialInFlight = false;
+                resetWindow();
+                listener = recoveryListener;
+            } else {
+                record(false);
+            }
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Records failed request
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && recorded >= outcomes.length
+                && failures * 100 >= failureRateThreshold * recorded) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Failure rate in percent over the sliding window
+     */
+    public synchronized int getFailureRate() {
+        return recorded > 0 ? failures * 100 / recorded : 0;
+    }
+
+    private void open() {
+        LOGGER.log(Level.WARNING, "Zulip server {0} is failing, opening circuit breaker for {1} ms",
+                new Object[] { url, openDurationMillis });
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        trialInFlight = false;
+        resetWindow();
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void resetWindow() {
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+}
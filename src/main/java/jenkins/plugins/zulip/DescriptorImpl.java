@@ -12,6 +12,7 @@ import hudson.tasks.Publisher;
 import hudson.util.Secret;
 import hudson.util.XStream2;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.StaplerRequest;
@@ -36,6 +37,39 @@ public class DescriptorImpl extends BuildStepDescriptor<Publisher> {
     private transient String hudsonUrl; // backwards compatibility
     private String jenkinsUrl;
     private Boolean smartNotify;
+    private String messageTemplate;
+    private Integer changeLogMaxEntries;
+    private Integer changeLogMaxLength;
+    private Boolean changeLogGroupByAuthor;
+    private Boolean changeLogMentions;
+    private Integer logExcerptBudget;
+    private Integer failedTestsMax;
+    private Boolean asyncMode;
+    private Integer asyncQueueCapacity;
+    private Integer asyncWorkers;
+    private String asyncOverflowPolicy;
+    private Integer coalesceWindow;
+    private Integer coalesceMaxMessages;
+    private Integer duplicateWindow;
+    private Integer retryMaxAttempts;
+    private Integer retryInitialDelay;
+    private Integer retryMaxDelay;
+    private Integer retryBudget;
+    private String retryStatuses;
+    private Boolean retryConnectionErrors;
+    private Boolean outboxEnabled;
+    private Boolean preemptiveAuth;
+    private Integer connectTimeout;
+    private Integer requestTimeout;
+    private Integer notificationDeadline;
+    private String statusBoardStream;
+    private String statusBoardTopic;
+    private Integer statusBoardDebounce;
+    private Boolean circuitBreakerEnabled;
+    private Integer circuitBreakerFailureRate;
+    private Integer circuitBreakerWindow;
+    private Integer circuitBreakerOpenDuration;
+    private String circuitBreakerOpenPolicy;
 
     public DescriptorImpl() {
         super(ZulipNotifier.class);
@@ -141,6 +175,343 @@ public class DescriptorImpl extends BuildStepDescriptor<Publisher> {
         this.smartNotify = smartNotify;
     }
 
+    public String getMessageTemplate() {
+        return messageTemplate;
+    }
+
+    public void setMessageTemplate(String messageTemplate) {
+        this.messageTemplate = messageTemplate;
+    }
+
+    public int getChangeLogMaxEntries() {
+        return changeLogMaxEntries != null ? changeLogMaxEntries : 50;
+    }
+
+    public void setChangeLogMaxEntries(Integer changeLogMaxEntries) {
+        this.changeLogMaxEntries = changeLogMaxEntries;
+    }
+
+    public int getChangeLogMaxLength() {
+        return changeLogMaxLength != null ? changeLogMaxLength : 4000;
+    }
+
+    public void setChangeLogMaxLength(Integer changeLogMaxLength) {
+        this.changeLogMaxLength = changeLogMaxLength;
+    }
+
+    /**
+     * @return Maximum number of KiB read from the end of the build log for log excerpts
+     */
+    public int getLogExcerptBudget() {
+        return logExcerptBudget != null ? logExcerptBudget : 1024;
+    }
+
+    public void setLogExcerptBudget(Integer logExcerptBudget) {
+        this.logExcerptBudget = logExcerptBudget;
+    }
+
+    /**
+     * @return Maximum number of failed tests listed in notifications
+     */
+    public int getFailedTestsMax() {
+        return failedTestsMax != null ? failedTestsMax : 10;
+    }
+
+    public void setFailedTestsMax(Integer failedTestsMax) {
+        this.failedTestsMax = failedTestsMax;
+    }
+
+    public boolean isChangeLogGroupByAuthor() {
+        return Boolean.TRUE.equals(changeLogGroupByAuthor);
+    }
+
+    public Boolean getChangeLogGroupByAuthor() {
+        return changeLogGroupByAuthor;
+    }
+
+    public void setChangeLogGroupByAuthor(Boolean changeLogGroupByAuthor) {
+        this.changeLogGroupByAuthor = changeLogGroupByAuthor;
+    }
+
+    public boolean isChangeLogMentions() {
+        return Boolean.TRUE.equals(changeLogMentions);
+    }
+
+    public Boolean getChangeLogMentions() {
+        return changeLogMentions;
+    }
+
+    public void setChangeLogMentions(Boolean changeLogMentions) {
+        this.changeLogMentions = changeLogMentions;
+    }
+
+    public boolean isAsyncMode() {
+        return Boolean.TRUE.equals(asyncMode);
+    }
+
+    public Boolean getAsyncMode() {
+        return asyncMode;
+    }
+
+    public void setAsyncMode(Boolean asyncMode) {
+        this.asyncMode = asyncMode;
+    }
+
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity != null ? asyncQueueCapacity : 1000;
+    }
+
+    public void setAsyncQueueCapacity(Integer asyncQueueCapacity) {
+        this.asyncQueueCapacity = asyncQueueCapacity;
+    }
+
+    public int getAsyncWorkers() {
+        return asyncWorkers != null ? asyncWorkers : 2;
+    }
+
+    public void setAsyncWorkers(Integer asyncWorkers) {
+        this.asyncWorkers = asyncWorkers;
+    }
+
+    public String getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy != null ? asyncOverflowPolicy : ZulipDispatcher.OverflowPolicy.SEND_SYNC.name();
+    }
+
+    public void setAsyncOverflowPolicy(String asyncOverflowPolicy) {
+        this.asyncOverflowPolicy = asyncOverflowPolicy;
+    }
+
+    public int getCoalesceWindow() {
+        return coalesceWindow != null ? coalesceWindow : 0;
+    }
+
+    public void setCoalesceWindow(Integer coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    public int getCoalesceMaxMessages() {
+        return coalesceMaxMessages != null ? coalesceMaxMessages : 20;
+    }
+
+    public void setCoalesceMaxMessages(Integer coalesceMaxMessages) {
+        this.coalesceMaxMessages = coalesceMaxMessages;
+    }
+
+    /**
+     * @return Time in seconds within which repeated messages are suppressed, 0 if disabled
+     */
+    public int getDuplicateWindow() {
+        return duplicateWindow != null ? duplicateWindow : 0;
+    }
+
+    public void setDuplicateWindow(Integer duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts != null ? retryMaxAttempts : 3;
+    }
+
+    public void setRetryMaxAttempts(Integer retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public int getRetryInitialDelay() {
+        return retryInitialDelay != null ? retryInitialDelay : 1;
+    }
+
+    public void setRetryInitialDelay(Integer retryInitialDelay) {
+        this.retryInitialDelay = retryInitialDelay;
+    }
+
+    public int getRetryMaxDelay() {
+        return retryMaxDelay != null ? retryMaxDelay : 60;
+    }
+
+    public void setRetryMaxDelay(Integer retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget != null ? retryBudget : 300;
+    }
+
+    public void setRetryBudget(Integer retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public String getRetryStatuses() {
+        return retryStatuses != null ? retryStatuses : RetryPolicy.DEFAULT_RETRY_STATUSES;
+    }
+
+    public void setRetryStatuses(String retryStatuses) {
+        this.retryStatuses = retryStatuses;
+    }
+
+    public boolean isRetryConnectionErrors() {
+        return retryConnectionErrors == null || retryConnectionErrors;
+    }
+
+    public void setRetryConnectionErrors(Boolean retryConnectionErrors) {
+        this.retryConnectionErrors = retryConnectionErrors;
+    }
+
+    /**
+     * @return Retry policy built from the configured retry settings
+     */
+    public RetryPolicy getRetryPolicy() {
+        return new RetryPolicy(getRetryMaxAttempts(), getRetryInitialDelay() * 1000L, getRetryMaxDelay() * 1000L,
+                getRetryBudget() * 1000L, getRetryStatuses(), isRetryConnectionErrors());
+    }
+
+    public boolean isOutboxEnabled() {
+        return Boolean.TRUE.equals(outboxEnabled);
+    }
+
+    public Boolean getOutboxEnabled() {
+        return outboxEnabled;
+    }
+
+    public void setOutboxEnabled(Boolean outboxEnabled) {
+        this.outboxEnabled = outboxEnabled;
+    }
+
+    public boolean isPreemptiveAuth() {
+        return Boolean.TRUE.equals(preemptiveAuth);
+    }
+
+    public Boolean getPreemptiveAuth() {
+        return preemptiveAuth;
+    }
+
+    public void setPreemptiveAuth(Boolean preemptiveAuth) {
+        this.preemptiveAuth = preemptiveAuth;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout != null ? connectTimeout : 10;
+    }
+
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getRequestTimeout() {
+        return requestTimeout != null ? requestTimeout : 30;
+    }
+
+    public void setRequestTimeout(Integer requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * @return Maximum time in seconds spent on one notification including retries, 0 if only the retry budget
+     *         applies
+     */
+    public int getNotificationDeadline() {
+        return notificationDeadline != null ? notificationDeadline : 0;
+    }
+
+    public void setNotificationDeadline(Integer notificationDeadline) {
+        this.notificationDeadline = notificationDeadline;
+    }
+
+    public String getStatusBoardStream() {
+        return statusBoardStream;
+    }
+
+    public void setStatusBoardStream(String statusBoardStream) {
+        this.statusBoardStream = statusBoardStream;
+    }
+
+    public String getStatusBoardTopic() {
+        return statusBoardTopic;
+    }
+
+    public void setStatusBoardTopic(String statusBoardTopic) {
+        this.statusBoardTopic = statusBoardTopic;
+    }
+
+    public int getStatusBoardDebounce() {
+        return statusBoardDebounce != null ? statusBoardDebounce : 10;
+    }
+
+    public void setStatusBoardDebounce(Integer statusBoardDebounce) {
+        this.statusBoardDebounce = statusBoardDebounce;
+    }
+
+    /**
+     * Tests if notifications sent to given stream and topic go to the status board
+     *
+     * @param stream The destination stream
+     * @param topic  The destination topic
+     * @return true if the status board is configured for the stream and topic
+     */
+    public boolean isStatusBoard(String stream, String topic) {
+        return ZulipUtil.isValueSet(statusBoardStream) && ZulipUtil.isValueSet(statusBoardTopic)
+                && statusBoardStream.equals(stream) && statusBoardTopic.equals(topic);
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return Boolean.TRUE.equals(circuitBreakerEnabled);
+    }
+
+    public Boolean getCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public void setCircuitBreakerEnabled(Boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    public int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate != null ? Math.min(circuitBreakerFailureRate, 100) : 50;
+    }
+
+    public void setCircuitBreakerFailureRate(Integer circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+    }
+
+    public int getCircuitBreakerWindow() {
+        return circuitBreakerWindow != null ? circuitBreakerWindow : 20;
+    }
+
+    public void setCircuitBreakerWindow(Integer circuitBreakerWindow) {
+        this.circuitBreakerWindow = circuitBreakerWindow;
+    }
+
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration != null ? circuitBreakerOpenDuration : 60;
+    }
+
+    public void setCircuitBreakerOpenDuration(Integer circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public String getCircuitBreakerOpenPolicy() {
+        return circuitBreakerOpenPolicy != null ? circuitBreakerOpenPolicy : CircuitBreaker.OpenPolicy.OUTBOX.name();
+    }
+
+    public void setCircuitBreakerOpenPolicy(String circuitBreakerOpenPolicy) {
+        this.circuitBreakerOpenPolicy = circuitBreakerOpenPolicy;
+    }
+
+    /**
+     * Gets circuit breaker guarding given Zulip server
+     *
+     * @param url The Zulip server url
+     * @return The breaker or null if circuit breaking is disabled
+     */
+    public CircuitBreaker getCircuitBreaker(String url) {
+        if (!isCircuitBreakerEnabled()) {
+            return null;
+        }
+        // Send what piled up in the outbox during the outage once the server is back
+        return CircuitBreaker.get(url, getCircuitBreakerFailureRate(), getCircuitBreakerWindow(),
+                getCircuitBreakerOpenDuration() * 1000L,
+                () -> Timer.get().submit(() -> ZulipOutbox.get().replay(this)));
+    }
+
     public boolean isApplicable(Class<? extends AbstractProject> aClass) {
         return true;
     }
@@ -156,7 +527,42 @@ public class DescriptorImpl extends BuildStepDescriptor<Publisher> {
         fullJobPathInMessage = (Boolean) json.get("fullJobPathInMessage");
         jenkinsUrl = (String) json.get("jenkinsUrl");
         smartNotify = (Boolean) json.get("smartNotify");
+        messageTemplate = (String) json.get("messageTemplate");
+        changeLogMaxEntries = getPositiveInt(json, "changeLogMaxEntries");
+        changeLogMaxLength = getPositiveInt(json, "changeLogMaxLength");
+        changeLogGroupByAuthor = (Boolean) json.get("changeLogGroupByAuthor");
+        changeLogMentions = (Boolean) json.get("changeLogMentions");
+        logExcerptBudget = getPositiveInt(json, "logExcerptBudget");
+        failedTestsMax = getPositiveInt(json, "failedTestsMax");
+        asyncMode = (Boolean) json.get("asyncMode");
+        asyncQueueCapacity = getPositiveInt(json, "asyncQueueCapacity");
+        asyncWorkers = getPositiveInt(json, "asyncWorkers");
+        asyncOverflowPolicy = (String) json.get("asyncOverflowPolicy");
+        coalesceWindow = getPositiveInt(json, "coalesceWindow");
+        coalesceMaxMessages = getPositiveInt(json, "coalesceMaxMessages");
+        duplicateWindow = getPositiveInt(json, "duplicateWindow");
+        retryMaxAttempts = getPositiveInt(json, "retryMaxAttempts");
+        retryInitialDelay = getPositiveInt(json, "retryInitialDelay");
+        retryMaxDelay = getPositiveInt(json, "retryMaxDelay");
+        retryBudget = getPositiveInt(json, "retryBudget");
+        retryStatuses = (String) json.get("retryStatuses");
+        retryConnectionErrors = (Boolean) json.get("retryConnectionErrors");
+        outboxEnabled = (Boolean) json.get("outboxEnabled");
+        preemptiveAuth = (Boolean) json.get("preemptiveAuth");
+        connectTimeout = getNonNegativeInt(json, "connectTimeout");
+        requestTimeout = getNonNegativeInt(json, "requestTimeout");
+        notificationDeadline = getPositiveInt(json, "notificationDeadline");
+        statusBoardStream = (String) json.get("statusBoardStream");
+        statusBoardTopic = (String) json.get("statusBoardTopic");
+        statusBoardDebounce = getPositiveInt(json, "statusBoardDebounce");
+        circuitBreakerEnabled = (Boolean) json.get("circuitBreakerEnabled");
+        circuitBreakerFailureRate = getPositiveInt(json, "circuitBreakerFailureRate");
+        circuitBreakerWindow = getPositiveInt(json, "circuitBreakerWindow");
+        circuitBreakerOpenDuration = getPositiveInt(json, "circuitBreakerOpenDuration");
+        circuitBreakerOpenPolicy = (String) json.get("circuitBreakerOpenPolicy");
         save();
+        ZulipClientRegistry.invalidate();
+        ItemPathCache.invalidateAll();
 
         // Cleanup the configuration file from previous plugin id - humbug
         File oldConfig = new File(Jenkins.get().getRootDir(), OLD_CONFIG_FILE_NAME);
@@ -171,6 +577,27 @@ public class DescriptorImpl extends BuildStepDescriptor<Publisher> {
         return super.configure(req, json);
     }
 
+    /**
+     * Reads optional positive number from the submitted form
+     *
+     * @return The number or null if the field is blank or not a positive number
+     */
+    private static Integer getPositiveInt(JSONObject json, String key) {
+        int value = json.optInt(key, 0);
+        return value > 0 ? value : null;
+    }
+
+    /**
+     * Reads setting where 0 has a meaning of its own, leaving it unset only if blank or invalid
+     */
+    private static Integer getNonNegativeInt(JSONObject json, String key) {
+        if (json.optString(key, "").trim().isEmpty()) {
+            return null;
+        }
+        int value = json.optInt(key, -1);
+        return value >= 0 ? value : null;
+    }
+
     @Override
     public String getDisplayName() {
         return "Zulip Notification";
@@ -0,0 +1,205 @@
+package jenkins.plugins.zulip;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects messages repeated to the same stream and topic within a time window.<br/>
+ * Messages are remembered by a 64-bit FNV-1a hash of stream, topic and content in an open addressing hash set of
+ * primitive longs. Hashes expire through a time wheel: every slot of the wheel lists the hashes added during one
+ * tick, and they are removed from the set when the wheel comes around to the slot again. Memory therefore depends only
+ * on the number of distinct messages within the window.
+ */
+public class DuplicateFilter {
+
+    private static final int TICKS = 16;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Beyond this, messages are let through without being remembered
+    private static final int MAX_ENTRIES = 1 << 16;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Open addressing with linear probing, 0 marks an empty slot
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size;
+
+    private final long[][] wheel = new long[TICKS][];
+    private final int[] wheelSizes = new int[TICKS];
+    private long tickMillis;
+    private long currentTick;
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Tests if the message was already seen within the window, and remembers it otherwise
+     *
+     * @param stream       The destination stream
+     * @param topic        The destination topic
+     * @param content      The message content
+     * @param windowMillis The time window
+     * @return true if the message is a duplicate
+     */
+    public boolean isDuplicate(String stream, String topic, String content, long windowMillis) {
+        return isDuplicate(stream, topic, content, windowMillis, System.currentTimeMillis());
+    }
+
+    synchronized boolean isDuplicate(String stream, String topic, String content, long windowMillis, long now) {
+        long tickLength = Math.max(1, windowMillis / TICKS);
+        if (tickLength != tickMillis) {
+            // Window changed, start over
+            clear();
+            tickMillis = tickLength;
+            currentTick = now / tickLength;
+        }
+        advance(now / tickMillis);
+        long hash = hash(stream, topic, content);
+        if (contains(hash)) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        if (size < MAX_ENTRIES) {
+            add(hash);
+            int slot = (int) (currentTick % TICKS);
+            long[] hashes = wheel[slot];
+            if (hashes == null) {
+                hashes = wheel[slot] = new long[16];
+            } else if (wheelSizes[slot] == hashes.length) {
+                hashes = wheel[slot] = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            hashes[wheelSizes[slot]++] = hash;
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of messages suppressed as duplicates
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void advance(long tick) {
+        if (tick - currentTick >= TICKS) {
+            // Everything expired
+            clear();
+            currentTick = tick;
+            return;
+        }
+        while (currentTick < tick) {
+            currentTick++;
+            // The slot of the new tick holds the hashes added a full turn ago
+            int slot = (int) (currentTick % TICKS);
+            long[] hashes = wheel[slot];
+            for (int i = 0; i < wheelSizes[slot]; i++) {
+                remove(hashes[i]);
+            }
+            wheelSizes[slot] = 0;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(table, 0);
+        size = 0;
+        Arrays.fill(wheelSizes, 0);
+    }
+
+    private boolean contains(long hash) {
+        int mask = table.length - 1;
+        for (int i = index(hash, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(long hash) {
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        int mask = table.length - 1;
+        int i = index(hash, mask);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+        size++;
+    }
+
+    private void remove(long hash) {
+        int mask = table.length - 1;
+        int i = index(hash, mask);
+        while (table[i] != hash) {
+            if (table[i] == 0) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        // Shift following entries back, so that probing never stops at the freed slot too early
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                break;
+            }
+            int home = index(table[j], mask);
+            boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!reachable) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long hash : old) {
+            if (hash != 0) {
+                int i = index(hash, mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = hash;
+            }
+        }
+    }
+
+    private static int index(long hash, int mask) {
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+    static long hash(String stream, String topic, String content) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, stream);
+        hash = (hash ^ 0xFF) * FNV_PRIME;
+        hash = hash(hash, topic);
+        hash = (hash ^ 0xFF) * FNV_PRIME;
+        hash = hash(hash, content);
+        // 0 marks empty slots
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return hash;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+}
@@ -0,0 +1,136 @@
+package jenkins.plugins.zulip;
+
+import java.util.List;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+
+/**
+ * Summary of the failed tests of a build: names of the first few failures and how many of them are new.<br/>
+ * Only the listed failures are looked at, never the whole result tree. Whether a failure is new comes from the build
+ * the test started failing in, which JUnit records along with the result of a failed test, so results of previous
+ * builds are not loaded. How many of all failures are new is only known if all of them are listed. The summary is
+ * kept on the build, so that retries, message edits and other notifiers reuse it.
+ */
+public class FailedTestSummaryAction extends InvisibleAction {
+
+    private final int failCount;
+    private final int limit;
+    private final String[] names;
+    private final boolean[] newFailures;
+    private final int newCount;
+    private final int existingCount;
+
+    private FailedTestSummaryAction(int failCount, int limit, String[] names, boolean[] newFailures, int newCount,
+            int existingCount) {
+        this.failCount = failCount;
+        this.limit = limit;
+        this.names = names;
+        this.newFailures = newFailures;
+        this.newCount = newCount;
+        this.existingCount = existingCount;
+    }
+
+    /**
+     * Gets the summary of the build, computing it unless the build already has an up to date one
+     *
+     * @param run   The build
+     * @param limit Maximum number of failed test names
+     * @return The summary, null if the build has no test results
+     */
+    public static FailedTestSummaryAction of(Run<?, ?> run, int limit) {
+        AbstractTestResultAction<?> tests = run.getAction(AbstractTestResultAction.class);
+        if (tests == null) {
+            return null;
+        }
+        int failCount = tests.getFailCount();
+        FailedTestSummaryAction summary = run.getAction(FailedTestSummaryAction.class);
+        // Pipelines may record more test results after the summary was computed
+        if (summary != null && summary.failCount == failCount && summary.limit >= limit) {
+            return summary;
+        }
+        summary = summarize(tests.getFailedTests(), failCount, limit);
+        run.replaceAction(summary);
+        return summary;
+    }
+
+    static FailedTestSummaryAction summarize(List<? extends TestResult> failedTests, int failCount, int limit) {
+        int listed = Math.min(limit, failedTests.size());
+        String[] names = new String[listed];
+        boolean[] newFailures = new boolean[listed];
+        int newCount = 0;
+        int existingCount = 0;
+        for (int i = 0; i < listed; i++) {
+            TestResult test = failedTests.get(i);
+            // Age is 1 in the build the test started failing in, other results cannot tell
+            int age = test instanceof CaseResult ? ((CaseResult) test).getAge() : 0;
+            if (age == 1) {
+                newCount++;
+            } else if (age > 1) {
+                existingCount++;
+            }
+            names[i] = test.getFullDisplayName();
+            newFailures[i] = age == 1;
+        }
+        if (listed < failCount) {
+            // Counting the rest would look at every failure
+            newCount = -1;
+            existingCount = -1;
+        }
+        return new FailedTestSummaryAction(failCount, limit, names, newFailures, newCount, existingCount);
+    }
+
+    /**
+     * @return Number of failed tests
+     */
+    public int getFailCount() {
+        return failCount;
+    }
+
+    /**
+     * @return Number of tests that started failing in this build, -1 if not known because not all failures are listed
+     */
+    public int getNewCount() {
+        return newCount;
+    }
+
+    /**
+     * @return Number of tests that failed in the previous build already, -1 if not known because not all failures are
+     *         listed
+     */
+    public int getExistingCount() {
+        return existingCount;
+    }
+
+    /**
+     * Renders the summary as Markdown list
+     *
+     * @param limit Maximum number of failed test names, at most the limit the summary was computed with
+     * @return The list of failed tests, empty if there are none or their names are not known
+     */
+    public String render(int limit) {
+        int listed = Math.min(limit, names.length);
+        if (listed == 0) {
+            return "";
+        }
+        StringBuilder summary = new StringBuilder("**Failed tests**");
+        if (newCount >= 0 && newCount + existingCount > 0) {
+            summary.append(" (").append(newCount).append(" new, ").append(existingCount).append(" still failing)");
+        }
+        summary.append(':');
+        for (int i = 0; i < listed; i++) {
+            summary.append("\n* `").append(names[i].replace("`", "'")).append('`');
+            if (newFailures[i]) {
+                summary.append(" *new*");
+            }
+        }
+        if (failCount > listed) {
+            summary.append("\n* +").append(failCount - listed).append(" more");
+        }
+        return summary.toString();
+    }
+
+}
@@ -0,0 +1,215 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes {@code application/x-www-form-urlencoded} request body.<br/>
+ * Parameters are percent-encoded straight into pooled byte buffers, without building intermediate strings, and the
+ * encoded body can be published any number of times (e.g. for retries) without encoding it again. The encoding is
+ * the same as with {@link java.net.URLEncoder} using UTF-8. Buffers go back to the pool once {@link #release()} is
+ * called.
+ */
+public class FormBodyPublisher implements HttpRequest.BodyPublisher {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private final long contentLength;
+    private volatile boolean released;
+
+    /**
+     * Encodes form parameters in their iteration order
+     *
+     * @param parameters The form parameters, null values are sent as empty
+     */
+    public FormBodyPublisher(Map<String, String> parameters) {
+        ByteBuffer buffer = acquire();
+        boolean first = true;
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (!first) {
+                buffer = put(buffer, (byte) '&');
+            }
+            first = false;
+            buffer = encode(buffer, parameter.getKey());
+            buffer = put(buffer, (byte) '=');
+            if (parameter.getValue() != null) {
+                buffer = encode(buffer, parameter.getValue());
+            }
+        }
+        buffer.flip();
+        buffers.add(buffer);
+        long length = 0;
+        for (ByteBuffer encoded : buffers) {
+            length += encoded.remaining();
+        }
+        contentLength = length;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new BufferSubscription(subscriber));
+    }
+
+    /**
+     * Returns buffers to the pool. The body must not be published anymore.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (ByteBuffer buffer : buffers) {
+            if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                pool.offer(buffer);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+        buffers.clear();
+    }
+
+    /**
+     * @return The encoded body, for logging
+     */
+    @Override
+    public String toString() {
+        StringBuilder body = new StringBuilder((int) contentLength);
+        for (ByteBuffer buffer : buffers) {
+            // Encoded form is plain ASCII
+            body.append(StandardCharsets.US_ASCII.decode(buffer.duplicate()));
+        }
+        return body.toString();
+    }
+
+    private ByteBuffer encode(ByteBuffer buffer, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-'
+                    || c == '*' || c == '_') {
+                buffer = put(buffer, (byte) c);
+            } else if (c == ' ') {
+                buffer = put(buffer, (byte) '+');
+            } else if (c < 0x80) {
+                buffer = escape(buffer, c);
+            } else if (c < 0x800) {
+                buffer = escape(buffer, 0xC0 | c >> 6);
+                buffer = escape(buffer, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer = escape(buffer, 0xF0 | codePoint >> 18);
+                buffer = escape(buffer, 0x80 | codePoint >> 12 & 0x3F);
+                buffer = escape(buffer, 0x80 | codePoint >> 6 & 0x3F);
+                buffer = escape(buffer, 0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, encoded as '?' like the JDK encoder does
+                buffer = escape(buffer, '?');
+            } else {
+                buffer = escape(buffer, 0xE0 | c >> 12);
+                buffer = escape(buffer, 0x80 | c >> 6 & 0x3F);
+                buffer = escape(buffer, 0x80 | c & 0x3F);
+            }
+        }
+        return buffer;
+    }
+
+    private ByteBuffer escape(ByteBuffer buffer, int b) {
+        buffer = put(buffer, (byte) '%');
+        buffer = put(buffer, HEX[b >> 4 & 0xF]);
+        return put(buffer, HEX[b & 0xF]);
+    }
+
+    private ByteBuffer put(ByteBuffer buffer, byte b) {
+        if (!buffer.hasRemaining()) {
+            buffer.flip();
+            buffers.add(buffer);
+            buffer = acquire();
+        }
+        return buffer.put(b);
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Emits views of the encoded buffers as requested by the subscriber, so that each subscription reads the body
+     * from the start
+     */
+    private final class BufferSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private int next;
+        private volatile boolean cancelled;
+
+        private BufferSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            // Subscribers may request more from onNext, only the outermost call emits
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!cancelled && next < buffers.size() && demand.get() > 0) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(buffers.get(next++).duplicate());
+                }
+                if (!cancelled && next == buffers.size()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package jenkins.plugins.zulip;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.JenkinsLocationConfiguration;
+
+/**
+ * Cache of rendered item paths, keyed by item full name.<br/>
+ * Rendering the path of an item walks up the item tree and, with links, computes the url of every level. Paths are
+ * cached for each combination of full path and links, and invalidated when an item is renamed, moved, updated or
+ * deleted, or when the Jenkins or Zulip root url changes. Paths with links also remember the root url they were
+ * rendered with, in case it changes without notice (e.g. when it is derived from the current request).
+ */
+public class ItemPathCache {
+
+    private static final int MAX_SIZE = 10000;
+
+    private static final ConcurrentMap<String, AtomicReferenceArray<Path>> paths = new ConcurrentHashMap<>();
+
+    // Incremented on every invalidation, so that paths rendered concurrently with it are not cached
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Gets the rendered path of given item, rendering it if it is not cached
+     *
+     * @param item         The item
+     * @param fullPath     Whether the path includes parent items
+     * @param displayLinks Whether the path includes links
+     * @param rootUrl      The root url links are rendered with, a path rendered with another root url is stale
+     * @param renderer     Renders the path
+     * @return The rendered path
+     */
+    static String get(Item item, boolean fullPath, boolean displayLinks, String rootUrl, Supplier<String> renderer) {
+        String fullName = item.getFullName();
+        if (fullName == null) {
+            return renderer.get();
+        }
+        int variant = (fullPath ? 2 : 0) | (displayLinks ? 1 : 0);
+        AtomicReferenceArray<Path> variants = paths.get(fullName);
+        Path cached = variants != null ? variants.get(variant) : null;
+        if (cached != null && Objects.equals(cached.rootUrl, rootUrl)) {
+            return cached.text;
+        }
+        long renderedGeneration = generation.get();
+        String path = renderer.get();
+        if (paths.size() >= MAX_SIZE) {
+            paths.clear();
+        }
+        paths.computeIfAbsent(fullName, key -> new AtomicReferenceArray<>(4)).set(variant, new Path(rootUrl, path));
+        if (generation.get() != renderedGeneration) {
+            // Invalidated while rendering, the path may be stale
+            paths.remove(fullName);
+        }
+        return path;
+    }
+
+    /**
+     * Invalidates paths of given item and all items inside it
+     *
+     * @param fullName The item full name
+     */
+    public static void invalidate(String fullName) {
+        if (fullName == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        String prefix = fullName + "/";
+        paths.keySet().removeIf(key -> key.equals(fullName) || key.startsWith(prefix));
+    }
+
+    /**
+     * Invalidates all paths, e.g. when the root url changed
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        paths.clear();
+    }
+
+    static int size() {
+        return paths.size();
+    }
+
+    private static final class Path {
+
+        private final String rootUrl;
+        private final String text;
+
+        private Path(String rootUrl, String text) {
+            this.rootUrl = rootUrl;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Invalidates paths of changed items
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidate(oldFullName);
+            invalidate(newFullName);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            // The display name may have changed
+            invalidate(item.getFullName());
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate(item.getFullName());
+        }
+    }
+
+    /**
+     * Invalidates all paths when the Jenkins root url may have changed
+     */
+    @Extension
+    public static class LocationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof JenkinsLocationConfiguration) {
+                invalidateAll();
+            }
+        }
+    }
+
+}
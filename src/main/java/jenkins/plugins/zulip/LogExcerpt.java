@@ -0,0 +1,200 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import hudson.console.ConsoleNote;
+
+/**
+ * Extracts lines of a build log without loading the whole log.<br/>
+ * Without pattern, the last lines are collected by reading the log backwards in chunks of {@value #CHUNK_SIZE} bytes,
+ * stopping as soon as enough lines are found. With pattern, the lines matching it are collected by streaming the end
+ * of the log forwards. Either way at most {@code maxBytes} bytes from the end of the log are read, so the cost does not
+ * depend on the log size.
+ */
+public class LogExcerpt {
+
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Longer lines are cut, so that a single line cannot take the whole message. Counted in characters once console
+     * notes are removed.
+     */
+    static final int MAX_LINE_LENGTH = 500;
+
+    /**
+     * Bytes of a line kept before console notes are removed, leaving room for the notes of any sensible line
+     */
+    static final int MAX_LINE_BYTES = 16 * 1024;
+
+    private final int maxLines;
+    private final Pattern pattern;
+    private final long maxBytes;
+
+    /**
+     * @param maxLines Maximum number of lines to collect
+     * @param pattern  Pattern of the lines to collect, null to collect the last lines
+     * @param maxBytes Maximum number of bytes to read from the end of the log
+     */
+    public LogExcerpt(int maxLines, Pattern pattern, long maxBytes) {
+        this.maxLines = maxLines;
+        this.pattern = pattern;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reads the excerpt
+     *
+     * @param log     The log file
+     * @param charset The log charset
+     * @return The collected lines, oldest first, without console notes
+     */
+    public List<String> read(File log, Charset charset) throws IOException {
+        if (maxLines <= 0 || maxBytes <= 0 || !log.isFile()) {
+            return Collections.emptyList();
+        }
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = Math.max(0, size - maxBytes);
+            return pattern != null ? scan(channel, start, size, charset) : tail(channel, start, size, charset);
+        }
+    }
+
+    private List<String> tail(FileChannel channel, long start, long end, Charset charset) throws IOException {
+        List<String> lines = new ArrayList<>(maxLines);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        byte[] chunk = buffer.array();
+        // Beginning of the line that continues in the chunk read before, capped at MAX_LINE_BYTES
+        byte[] fragment = new byte[0];
+        long position = end;
+        while (position > start && lines.size() < maxLines) {
+            int length = (int) Math.min(CHUNK_SIZE, position - start);
+            position -= length;
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Log was truncated while reading");
+                }
+            }
+            int lineEnd = length;
+            for (int i = length - 1; i >= 0 && lines.size() < maxLines; i--) {
+                if (chunk[i] == '\n') {
+                    add(lines, prepend(chunk, i + 1, lineEnd, fragment), charset);
+                    fragment = new byte[0];
+                    lineEnd = i;
+                }
+            }
+            if (lines.size() < maxLines) {
+                fragment = prepend(chunk, 0, lineEnd, fragment);
+            }
+        }
+        if (position == 0 && lines.size() < maxLines) {
+            // The first line of the log, unless the budget cut it
+            add(lines, fragment, charset);
+        }
+        Collections.reverse(lines);
+        return lines;
+    }
+
+    private List<String> scan(FileChannel channel, long start, long end, Charset charset) throws IOException {
+        Deque<String> matches = new ArrayDeque<>(maxLines);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        byte[] chunk = buffer.array();
+        byte[] line = new byte[MAX_LINE_BYTES];
+        int lineLength = 0;
+        // Started in the middle of a line, which is skipped
+        boolean skipping = start > 0;
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(CHUNK_SIZE, end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            for (int i = 0; i < read; i++) {
+                byte b = chunk[i];
+                if (b == '\n') {
+                    if (!skipping) {
+                        match(matches, line, lineLength, charset);
+                    }
+                    skipping = false;
+                    lineLength = 0;
+                } else if (lineLength < MAX_LINE_BYTES) {
+                    line[lineLength++] = b;
+                }
+            }
+        }
+        if (!skipping) {
+            match(matches, line, lineLength, charset);
+        }
+        return new ArrayList<>(matches);
+    }
+
+    private void match(Deque<String> matches, byte[] line, int length, Charset charset) {
+        String text = decode(line, length, charset);
+        if (!text.isEmpty() && pattern.matcher(text).find()) {
+            if (matches.size() == maxLines) {
+                matches.removeFirst();
+            }
+            matches.addLast(text);
+        }
+    }
+
+    private static void add(List<String> lines, byte[] line, Charset charset) {
+        String text = decode(line, line.length, charset);
+        if (!text.isEmpty()) {
+            lines.add(text);
+        }
+    }
+
+    private static byte[] prepend(byte[] chunk, int from, int to, byte[] fragment) {
+        int length = Math.min(to - from + fragment.length, MAX_LINE_BYTES);
+        byte[] line = Arrays.copyOfRange(chunk, from, from + length);
+        if (length > to - from) {
+            System.arraycopy(fragment, 0, line, to - from, length - (to - from));
+        }
+        return line;
+    }
+
+    private static String decode(byte[] line, int length, Charset charset) {
+        String text = new String(line, 0, length, charset);
+        if (length >= MAX_LINE_BYTES) {
+            // Cut by the byte limit, which may have split a console note or a character
+            int note = text.lastIndexOf(ConsoleNote.PREAMBLE_STR);
+            if (note >= 0 && text.indexOf(ConsoleNote.POSTAMBLE_STR, note) < 0) {
+                text = text.substring(0, note);
+            }
+            while (text.endsWith("\uFFFD")) {
+                text = text.substring(0, text.length() - 1);
+            }
+        }
+        text = ConsoleNote.removeNotes(text);
+        // Drop carriage returns of Windows line ends and the progress bars they draw
+        int carriageReturn = text.lastIndexOf('\r', text.length() - 2);
+        if (carriageReturn >= 0) {
+            text = text.substring(carriageReturn + 1);
+        }
+        text = text.strip();
+        if (text.length() > MAX_LINE_LENGTH) {
+            int cut = MAX_LINE_LENGTH;
+            if (Character.isHighSurrogate(text.charAt(cut - 1))) {
+                cut--;
+            }
+            text = text.substring(0, cut);
+        }
+        return text;
+    }
+
+}
@@ -0,0 +1,169 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.util.Timer;
+
+/**
+ * Buffers messages going to the same stream and topic for a short window and sends them as a single combined
+ * message.<br/>
+ * A batch is sent when the window elapses, when it holds the configured maximum number of messages or when the
+ * next message would push it over Zulip's message length limit. The outbox entries of the messages are passed on
+ * with the combined message, which completes them all.
+ */
+public class MessageCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(MessageCoalescer.class.getName());
+
+    /**
+     * Default maximum message length accepted by Zulip server
+     */
+    static final int MAX_MESSAGE_LENGTH = 10000;
+
+    private static final String SEPARATOR = "\n\n";
+
+    /**
+     * Sends the combined message further down the line
+     */
+    @FunctionalInterface
+    public interface Sender {
+        CompletableFuture<HttpResponse<String>> send(DescriptorImpl globalConfig, Zulip zulip, String stream,
+                String topic, String message, long[] outboxIds);
+    }
+
+    private final Sender sender;
+
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    public MessageCoalescer(Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Adds message to the batch of its stream and topic
+     *
+     * @return Future completed with the response to the combined message
+     */
+    public CompletableFuture<HttpResponse<String>> add(DescriptorImpl globalConfig, Zulip zulip, String stream,
+            String topic, String message) {
+        return add(globalConfig, zulip, stream, topic, message, 0);
+    }
+
+    /**
+     * Adds message recorded in the outbox to the batch of its stream and topic
+     *
+     * @param outboxId Id of the outbox entry of the message, 0 if it was not recorded
+     * @return Future completed with the response to the combined message
+     */
+    public CompletableFuture<HttpResponse<String>> add(DescriptorImpl globalConfig, Zulip zulip, String stream,
+            String topic, String message, long outboxId) {
+        String content = message != null ? message : "";
+        String key = zulip.getUrl() + "\n" + zulip.getEmail() + "\n" + stream + "\n" + topic;
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        List<Batch> ready = new ArrayList<>(2);
+        synchronized (this) {
+            Batch batch = batches.get(key);
+            if (batch != null && batch.length + SEPARATOR.length() + content.length() > MAX_MESSAGE_LENGTH) {
+                // Combined message would be rejected by Zulip, send what we have and start over
+                batches.remove(key);
+                ready.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(globalConfig, zulip, stream, topic);
+                batches.put(key, batch);
+                Batch scheduled = batch;
+                batch.flushTask = Timer.get().schedule(() -> flush(key, scheduled),
+                        globalConfig.getCoalesceWindow(), TimeUnit.SECONDS);
+            }
+            batch.add(content, outboxId, result);
+            if (batch.messages.size() >= globalConfig.getCoalesceMaxMessages()) {
+                batches.remove(key);
+                ready.add(batch);
+            }
+        }
+        for (Batch batch : ready) {
+            send(batch);
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of batches currently waiting to be sent
+     */
+    public synchronized int getPendingBatches() {
+        return batches.size();
+    }
+
+    private void flush(String key, Batch batch) {
+        synchronized (this) {
+            if (batches.get(key) != batch) {
+                // Already sent because it got full
+                return;
+            }
+            batches.remove(key);
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        if (batch.flushTask != null) {
+            batch.flushTask.cancel(false);
+        }
+        LOGGER.log(Level.FINE, "Sending {0} coalesced messages to {1} > {2}",
+                new Object[] { batch.messages.size(), batch.stream, batch.topic });
+        String combined = String.join(SEPARATOR, batch.messages);
+        long[] outboxIds = batch.outboxIds.stream().mapToLong(Long::longValue).toArray();
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            response = sender.send(batch.globalConfig, batch.zulip, batch.stream, batch.topic, combined, outboxIds);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
+            response = CompletableFuture.completedFuture(null);
+        }
+        response.whenComplete((httpResponse, error) -> {
+            for (CompletableFuture<HttpResponse<String>> result : batch.results) {
+                result.complete(error == null ? httpResponse : null);
+            }
+        });
+    }
+
+    private static final class Batch {
+
+        private final DescriptorImpl globalConfig;
+        private final Zulip zulip;
+        private final String stream;
+        private final String topic;
+        private final List<String> messages = new ArrayList<>();
+        private final List<Long> outboxIds = new ArrayList<>();
+        private final List<CompletableFuture<HttpResponse<String>>> results = new ArrayList<>();
+        private int length = -SEPARATOR.length();
+        private ScheduledFuture<?> flushTask;
+
+        private Batch(DescriptorImpl globalConfig, Zulip zulip, String stream, String topic) {
+            this.globalConfig = globalConfig;
+            this.zulip = zulip;
+            this.stream = stream;
+            this.topic = topic;
+        }
+
+        private void add(String message, long outboxId, CompletableFuture<HttpResponse<String>> result) {
+            messages.add(message);
+            if (outboxId != 0) {
+                outboxIds.add(outboxId);
+            }
+            results.add(result);
+            length += SEPARATOR.length() + message.length();
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.util.Timer;
+
+/**
+ * Delivers a single request to Zulip, retrying it according to {@link RetryPolicy}.<br/>
+ * Every attempt is paced by the {@link RateLimiter} of the bot account. Retries and paced attempts are scheduled on
+ * the Jenkins timer, so nobody sleeps while waiting for the next attempt. Callers can
+ * either wait for the outcome of the first attempt ({@link #getFirstAttempt()}), leaving any retries to the
+ * background, or for the final outcome ({@link #getResult()}). An optional deadline bounds the total time spent on
+ * the delivery; time spent in each phase is logged at {@code FINE} level for diagnostics.<br/>
+ * An attempt in flight when the deadline passes is not cancelled, it may still reach the server. Its response
+ * completes {@link #getSettled()}, which is what decides whether the request was delivered.
+ */
+public class MessageDelivery {
+
+    private static final Logger LOGGER = Logger.getLogger(MessageDelivery.class.getName());
+
+    private final HttpClient client;
+    private final HttpRequest request;
+    private final FormBodyPublisher body;
+    private final RetryPolicy retryPolicy;
+    private final RateLimiter rateLimiter;
+    private CircuitBreaker circuitBreaker;
+    private long deadlineMillis;
+    private final long startMillis = System.currentTimeMillis();
+    private int attempt;
+
+    // Guarded by this
+    private final StringBuilder timings = new StringBuilder();
+    private long phaseStart = System.nanoTime();
+
+    private final CompletableFuture<HttpResponse<String>> firstAttempt = new CompletableFuture<>();
+    private final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+    private final CompletableFuture<HttpResponse<String>> settled = new CompletableFuture<>();
+
+    /**
+     * @param client      The client to send request with
+     * @param request     The request to send
+     * @param body        The request body, released once no attempt is in flight anymore
+     * @param retryPolicy The retry policy
+     * @param rateLimiter The rate limiter of the bot account, may be null
+     */
+    public MessageDelivery(HttpClient client, HttpRequest request, FormBodyPublisher body, RetryPolicy retryPolicy,
+            RateLimiter rateLimiter) {
+        this.client = client;
+        this.request = request;
+        this.body = body;
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        settled.whenComplete((httpResponse, error) -> {
+            if (body != null) {
+                // No more attempts will publish the body
+                body.release();
+            }
+        });
+        result.whenComplete((httpResponse, error) -> {
+            if (LOGGER.isLoggable(Level.FINE) && request != null) {
+                LOGGER.log(Level.FINE, "Zulip request {0} finished in {1} ms ({2})",
+                        new Object[] { request.uri(), System.currentTimeMillis() - startMillis, getTimings() });
+            }
+        });
+    }
+
+    /**
+     * Creates delivery that failed before any request could be sent
+     *
+     * @param error The failure
+     * @return Already completed delivery
+     */
+    public static MessageDelivery failed(Throwable error) {
+        MessageDelivery delivery = new MessageDelivery(null, null, null, RetryPolicy.NONE, null);
+        delivery.firstAttempt.complete(null);
+        delivery.result.completeExceptionally(error);
+        delivery.settled.complete(null);
+        return delivery;
+    }
+
+    /**
+     * Guards attempts of this delivery with circuit breaker. Attempts made while it is open fail immediately.
+     *
+     * @param circuitBreaker The breaker of the Zulip server, may be null
+     * @return this delivery
+     */
+    public MessageDelivery withCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * Bounds the total time of this delivery, including rate limit waits and retries. When the deadline passes, the
+     * delivery fails with {@link HttpTimeoutException} and no further attempts are made.
+     *
+     * @param deadlineMillis Absolute deadline in milliseconds since the epoch, 0 for none
+     * @return this delivery
+     */
+    public MessageDelivery withDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * Sends the first attempt
+     *
+     * @return this delivery
+     */
+    public MessageDelivery start() {
+        if (deadlineMillis > 0) {
+            Timer.get().schedule(this::expire, Math.max(0, deadlineMillis - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        }
+        attempt();
+        return this;
+    }
+
+    /**
+     * @return Time spent in each phase so far, e.g. {@code attempt 1=120ms, backoff 1=1000ms, attempt 2=80ms}
+     */
+    public synchronized String getTimings() {
+        return timings.toString();
+    }
+
+    /**
+     * @return Future completed with the response to the first attempt, or with null if it failed without response
+     */
+    public CompletableFuture<HttpResponse<String>> getFirstAttempt() {
+        return firstAttempt;
+    }
+
+    /**
+     * @return Future completed with the final response, or exceptionally if the last attempt failed without response
+     */
+    public CompletableFuture<HttpResponse<String>> getResult() {
+        return result;
+    }
+
+    /**
+     * Unlike {@link #getResult()}, this future waits for the attempt in flight when the deadline passed.
+     *
+     * @return Future completed once no attempt is in flight anymore, with the response to the last attempt or with
+     * null if it failed without response
+     */
+    public CompletableFuture<HttpResponse<String>> getSettled() {
+        return settled;
+    }
+
+    private void attempt() {
+        if (result.isDone()) {
+            // Expired while waiting for the next attempt
+            settled.complete(null);
+            return;
+        }
+        long wait = rateLimiter != null ? rateLimiter.reserve() : 0;
+        if (wait > 0) {
+            Timer.get().schedule(() -> {
+                endPhase("rate limit");
+                send();
+            }, wait, TimeUnit.MILLISECONDS);
+        } else {
+            send();
+        }
+    }
+
+    private void send() {
+        if (result.isDone()) {
+            settled.complete(null);
+            return;
+        }
+        // Taken right before sending, so that a half-open trial is always reported back to the breaker
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            LOGGER.log(Level.FINE, "Not sending Zulip message, circuit breaker for {0} is open",
+                    circuitBreaker.getUrl());
+            firstAttempt.complete(null);
+            result.completeExceptionally(new CircuitBreaker.OpenException(circuitBreaker.getUrl()));
+            settled.complete(null);
+            return;
+        }
+        attempt++;
+        try {
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((httpResponse, error) -> {
+                        if (rateLimiter != null) {
+                            rateLimiter.update(httpResponse);
+                        }
+                        onAttemptComplete(httpResponse, unwrap(error));
+                    });
+        } catch (RuntimeException e) {
+            onAttemptComplete(null, e);
+        }
+    }
+
+    private void onAttemptComplete(HttpResponse<String> httpResponse, Throwable error) {
+        endPhase("attempt " + attempt);
+        if (circuitBreaker != null) {
+            // Client errors mean the server is up, only missing responses and server errors count as failures
+            if (error != null || httpResponse.statusCode() >= 500) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+        }
+        if (result.isDone()) {
+            // Expired while this attempt was in flight, it is the last one either way
+            LOGGER.log(Level.FINE, "Zulip request {0} finished after the deadline: {1}",
+                    new Object[] { request.uri(), describe(httpResponse, error) });
+            settled.complete(error == null ? httpResponse : null);
+            return;
+        }
+        if (error == null && httpResponse.statusCode() == 200) {
+            firstAttempt.complete(httpResponse);
+            result.complete(httpResponse);
+            settled.complete(httpResponse);
+            return;
+        }
+        boolean retryable = error != null ? retryPolicy.isRetryable(error)
+                : retryPolicy.isRetryable(httpResponse.statusCode());
+        if (retryable && attempt < retryPolicy.getMaxAttempts()) {
+            long delay = retryPolicy.getDelayMillis(attempt, httpResponse);
+            long now = System.currentTimeMillis();
+            if (now - startMillis + delay <= retryPolicy.getBudgetMillis()
+                    && (deadlineMillis <= 0 || now + delay < deadlineMillis)) {
+                LOGGER.log(Level.WARNING, "Error sending Zulip message (attempt {0} of {1}): {2}, retrying in {3} ms",
+                        new Object[] { attempt, retryPolicy.getMaxAttempts(), describe(httpResponse, error), delay });
+                firstAttempt.complete(httpResponse);
+                int failedAttempt = attempt;
+                Timer.get().schedule(() -> {
+                    endPhase("backoff " + failedAttempt);
+                    attempt();
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Retry budget of {0} ms or deadline exhausted", retryPolicy.getBudgetMillis());
+        }
+        if (error != null) {
+            LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", error);
+            firstAttempt.complete(null);
+            result.completeExceptionally(error);
+            settled.complete(null);
+        } else {
+            LOGGER.log(Level.SEVERE,
+                    "Error sending Zulip message:\nStatus:" + httpResponse.statusCode() + "\nBody:"
+                            + httpResponse.body() + "\n\n" +
+                            "We sent:" + body);
+            firstAttempt.complete(httpResponse);
+            result.complete(httpResponse);
+            settled.complete(httpResponse);
+        }
+    }
+
+    private void expire() {
+        if (result.isDone()) {
+            return;
+        }
+        endPhase("expired");
+        LOGGER.log(Level.WARNING, "Zulip message not delivered within deadline, giving up after {0} attempts ({1})",
+                new Object[] { attempt, getTimings() });
+        firstAttempt.complete(null);
+        // The attempt in flight, or the next one finding the delivery expired, settles it
+        result.completeExceptionally(new HttpTimeoutException("Zulip notification deadline exceeded"));
+    }
+
+    private synchronized void endPhase(String phase) {
+        long now = System.nanoTime();
+        if (timings.length() > 0) {
+            timings.append(", ");
+        }
+        timings.append(phase).append('=').append(TimeUnit.NANOSECONDS.toMillis(now - phaseStart)).append("ms");
+        phaseStart = now;
+    }
+
+    private static String describe(HttpResponse<String> httpResponse, Throwable error) {
+        return error != null ? error.toString() : "Status " + httpResponse.statusCode();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+}
@@ -0,0 +1,201 @@
+package jenkins.plugins.zulip;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled notification message template.<br/>
+ * Templates are plain text with {@code ${name}} placeholders replaced by variable values. A section
+ * {@code ${#name}...${/name}} is rendered only if the variable is set (true or non-empty), an inverted section
+ * {@code ${^name}...${/name}} only if it is not. Placeholders of unknown variables are kept as they are.<br/>
+ * Templates are parsed once into a flat instruction list and cached by their text, so rendering is a single pass
+ * over the instructions. Variables are evaluated only when the template actually uses them.
+ */
+public class MessageTemplate {
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, MessageTemplate> cache = new LinkedHashMap<String, MessageTemplate>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MessageTemplate> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final byte LITERAL = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte SECTION = 2;
+    private static final byte INVERTED_SECTION = 3;
+    private static final byte END = 4;
+
+    /**
+     * Provides values of template variables
+     */
+    @FunctionalInterface
+    public interface Variables {
+        /**
+         * @param name The variable name
+         * @return The value, or null if the variable is unknown
+         */
+        Object get(String name);
+    }
+
+    private final byte[] ops;
+    private final String[] args;
+    // Index of the matching END of each section
+    private final int[] jumps;
+    private final int literalLength;
+    private volatile int lastLength;
+
+    private MessageTemplate(byte[] ops, String[] args, int[] jumps) {
+        this.ops = ops;
+        this.args = args;
+        this.jumps = jumps;
+        int length = 0;
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == LITERAL) {
+                length += args[i].length();
+            }
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Gets compiled template, parsing it only if it is not cached yet
+     *
+     * @param text The template text
+     * @return The compiled template
+     */
+    public static MessageTemplate compile(String text) {
+        synchronized (cache) {
+            MessageTemplate template = cache.get(text);
+            if (template == null) {
+                template = parse(text);
+                cache.put(text, template);
+            }
+            return template;
+        }
+    }
+
+    /**
+     * Renders the template
+     *
+     * @param variables The variable values
+     * @return The rendered message
+     */
+    public String render(Variables variables) {
+        // Most messages of a template have similar length, size the builder after the previous one
+        StringBuilder out = new StringBuilder(Math.max(lastLength, literalLength) + 16);
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case LITERAL:
+                    out.append(args[i]);
+                    break;
+                case VARIABLE:
+                    Object value = variables.get(args[i]);
+                    if (value != null) {
+                        out.append(value);
+                    } else {
+                        out.append("${").append(args[i]).append('}');
+                    }
+                    break;
+                case SECTION:
+                    if (!isSet(variables.get(args[i]))) {
+                        i = jumps[i];
+                    }
+                    break;
+                case INVERTED_SECTION:
+                    if (isSet(variables.get(args[i]))) {
+                        i = jumps[i];
+                    }
+                    break;
+                case END:
+                default:
+                    break;
+            }
+        }
+        lastLength = out.length();
+        return out.toString();
+    }
+
+    private static boolean isSet(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        return value != null && value.toString().length() > 0;
+    }
+
+    private static MessageTemplate parse(String text) {
+        List<Byte> ops = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        Deque<Integer> openSections = new ArrayDeque<>();
+        Map<Integer, Integer> jumps = new LinkedHashMap<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            int start = text.indexOf("${", i);
+            int end = start >= 0 ? text.indexOf('}', start + 2) : -1;
+            if (start < 0 || end < 0) {
+                literal.append(text, i, text.length());
+                break;
+            }
+            literal.append(text, i, start);
+            String tag = text.substring(start + 2, end);
+            i = end + 1;
+            char kind = tag.isEmpty() ? 0 : tag.charAt(0);
+            if (kind == '#' || kind == '^') {
+                flush(literal, ops, args);
+                openSections.push(ops.size());
+                ops.add(kind == '#' ? SECTION : INVERTED_SECTION);
+                args.add(tag.substring(1).trim());
+            } else if (kind == '/' && !openSections.isEmpty()
+                    && args.get(openSections.peek()).equals(tag.substring(1).trim())) {
+                flush(literal, ops, args);
+                jumps.put(openSections.pop(), ops.size());
+                ops.add(END);
+                args.add(null);
+            } else if (kind == '/' || tag.trim().isEmpty()) {
+                // Unbalanced or empty tag, keep it as text
+                literal.append("${").append(tag).append('}');
+            } else {
+                flush(literal, ops, args);
+                ops.add(VARIABLE);
+                args.add(tag.trim());
+            }
+        }
+        flush(literal, ops, args);
+        // Sections left open run to the end of the template
+        while (!openSections.isEmpty()) {
+            jumps.put(openSections.pop(), ops.size());
+            ops.add(END);
+            args.add(null);
+        }
+
+        byte[] opArray = new byte[ops.size()];
+        int[] jumpArray = new int[ops.size()];
+        for (int op = 0; op < opArray.length; op++) {
+            opArray[op] = ops.get(op);
+            jumpArray[op] = jumps.getOrDefault(op, op);
+        }
+        return new MessageTemplate(opArray, args.toArray(new String[0]), jumpArray);
+    }
+
+    private static void flush(StringBuilder literal, List<Byte> ops, List<String> args) {
+        if (literal.length() > 0) {
+            ops.add(LITERAL);
+            args.add(literal.toString());
+            literal.setLength(0);
+        }
+    }
+
+}
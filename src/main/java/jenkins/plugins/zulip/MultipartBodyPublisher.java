@@ -0,0 +1,169 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes single file as {@code multipart/form-data} request body.<br/>
+ * The file is not read into the heap at once: it is read chunk by chunk of {@value #CHUNK_SIZE} bytes as the
+ * subscriber requests data, so memory use does not depend on the file size. The file is not memory mapped, as
+ * mappings are only released by garbage collection and a large file would pile up thousands of them. Every
+ * subscription reads the file again, so the body can be published any number of times.
+ */
+public class MultipartBodyPublisher implements HttpRequest.BodyPublisher {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final File file;
+    private final String boundary = "ZulipJenkins" + UUID.randomUUID().toString().replace("-", "");
+    private final byte[] preamble;
+    private final byte[] epilogue;
+    private final long fileLength;
+
+    /**
+     * @param field    The form field name
+     * @param file     The file to send
+     * @param filename The file name reported to the server
+     */
+    public MultipartBodyPublisher(String field, File file, String filename) {
+        this.file = file;
+        this.fileLength = file.length();
+        this.preamble = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + quote(field) + "\"; filename=\"" + quote(filename)
+                + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        this.epilogue = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return Value of the {@code Content-Type} header, including the boundary
+     */
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public long contentLength() {
+        return preamble.length + fileLength + epilogue.length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new FileSubscription(subscriber));
+    }
+
+    private static String quote(String value) {
+        // Line breaks would end the header, quotes the parameter
+        return value.replace("\r", "").replace("\n", "").replace("\"", "%22");
+    }
+
+    /**
+     * Emits the preamble, chunks of the file and the epilogue as requested by the subscriber
+     */
+    private final class FileSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private FileChannel channel;
+        // -1 before the preamble was emitted, fileLength once the file was
+        private long position = -1;
+        private volatile boolean cancelled;
+
+        private FileSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            // Subscribers may request more from onNext, only the outermost call emits
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                try {
+                    while (!cancelled && demand.get() > 0) {
+                        demand.decrementAndGet();
+                        ByteBuffer next = next();
+                        if (next == null) {
+                            cancelled = true;
+                            close();
+                            subscriber.onComplete();
+                            break;
+                        }
+                        subscriber.onNext(next);
+                    }
+                } catch (IOException e) {
+                    cancelled = true;
+                    subscriber.onError(e);
+                }
+                if (cancelled) {
+                    close();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private ByteBuffer next() throws IOException {
+            if (position < 0) {
+                position = 0;
+                return ByteBuffer.wrap(preamble);
+            }
+            if (position < fileLength) {
+                if (channel == null) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                // A fresh buffer per chunk, the client may hold emitted buffers until they are written
+                ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, fileLength - position));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, position + chunk.position()) < 0) {
+                        throw new IOException(file + " was truncated while uploading");
+                    }
+                }
+                position += chunk.capacity();
+                return chunk.flip();
+            }
+            if (position == fileLength) {
+                position++;
+                return ByteBuffer.wrap(epilogue);
+            }
+            return null;
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing more to read from it anyway
+                }
+                channel = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+package jenkins.plugins.zulip;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Per-job index of the results seen by the notifier, so that smart notification does not need to load previous
+ * builds.<br/>
+ * For every job, the results of the last {@value #HISTORY_SIZE} builds are kept in a ring buffer of bytes, ordered by
+ * build number, along with the number of consecutive unsuccessful builds up to each of them. Builds completing out of
+ * order are put in their place, so that each build is judged by the builds before it only. The index is kept in
+ * memory and appended to a journal in {@code $JENKINS_HOME/zulip}, which is compacted when loaded and when it grows
+ * much larger than the index.
+ */
+public class NotificationStateIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationStateIndex.class.getName());
+
+    private static final Result[] RESULTS = { Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT,
+            Result.ABORTED };
+
+    private static final byte UNKNOWN = -1;
+
+    private static final byte SUCCESS = 0;
+
+    /**
+     * Number of recent results kept per job
+     */
+    public static final int HISTORY_SIZE = 32;
+
+    private static NotificationStateIndex instance;
+
+    private final File file;
+    private final Map<String, JobState> jobs = new HashMap<>();
+    private int journalRecords;
+    // Records left by the last compaction, up to HISTORY_SIZE per job
+    private int compactedRecords;
+    private int compactions;
+
+    NotificationStateIndex(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * @return The index, loaded from the journal on first use
+     */
+    public static synchronized NotificationStateIndex get() {
+        if (instance == null) {
+            instance = new NotificationStateIndex(new File(Jenkins.get().getRootDir(), "zulip/notification-state.log"));
+        }
+        return instance;
+    }
+
+    /**
+     * Gets result of the build preceding given build
+     *
+     * @param job         The job full name
+     * @param buildNumber The build number
+     * @return The result of the last recorded build before given build, null if not known
+     */
+    public synchronized Result getPreviousResult(String job, int buildNumber) {
+        JobState state = jobs.get(job);
+        if (state == null) {
+            return null;
+        }
+        // The build itself and newer builds may have been recorded already, e.g. by an earlier notification step of
+        // a pipeline or by a concurrent build that completed first
+        int age = state.find(buildNumber - 1);
+        return age < state.count ? toResult(state.get(age)) : null;
+    }
+
+    /**
+     * Gets recent results of a job up to given build, newer builds that completed first are left out
+     *
+     * @param job         The job full name
+     * @param buildNumber The build number
+     * @return The results, newest first, empty if none was recorded
+     */
+    public synchronized History getHistory(String job, int buildNumber) {
+        JobState state = jobs.get(job);
+        int first = state != null ? state.find(buildNumber) : 0;
+        if (state == null || first == state.count) {
+            return new History(new byte[0], 0);
+        }
+        byte[] results = new byte[state.count - first];
+        for (int age = 0; age < results.length; age++) {
+            results[age] = state.get(first + age);
+        }
+        return new History(results, state.getStreak(first));
+    }
+
+    /**
+     * Records result of a build
+     *
+     * @param job         The job full name
+     * @param buildNumber The build number
+     * @param result      The build result
+     */
+    public synchronized void record(String job, int buildNumber, Result result) {
+        byte value = toByte(result);
+        if (value == UNKNOWN) {
+            return;
+        }
+        JobState state = jobs.computeIfAbsent(job, key -> new JobState());
+        if (!state.update(buildNumber, value)) {
+            return;
+        }
+        append(encode(job) + "\t" + buildNumber + "\t" + result + "\n");
+        // Compact once the journal doubled since the last compaction, so that appends stay amortized O(1)
+        if (journalRecords > Math.max(1000, compactedRecords * 2)) {
+            compact();
+        }
+    }
+
+    /**
+     * Moves state of renamed or moved job
+     */
+    public synchronized void rename(String oldJob, String newJob) {
+        JobState state = jobs.remove(oldJob);
+        if (state != null) {
+            jobs.put(newJob, state);
+            compact();
+        }
+    }
+
+    public synchronized void remove(String job) {
+        if (jobs.remove(job) != null) {
+            compact();
+        }
+    }
+
+    /**
+     * @return Number of compactions since the index was loaded, including the one on load
+     */
+    synchronized int getCompactions() {
+        return compactions;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    JobState state = jobs.computeIfAbsent(decode(fields[0]), key -> new JobState());
+                    state.update(Integer.parseInt(fields[1]), toByte(Result.fromString(fields[2])));
+                    if (fields.length > 3) {
+                        // Streak written by compaction, which may be longer than the history
+                        state.restoreStreak(Integer.parseInt(fields[1]), Integer.parseInt(fields[3]));
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Skipping malformed Zulip notification state record: {0}", line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read Zulip notification state " + file, e);
+        }
+        compact();
+    }
+
+    private void compact() {
+        StringBuilder records = new StringBuilder();
+        int count = 0;
+        for (Map.Entry<String, JobState> job : jobs.entrySet()) {
+            JobState state = job.getValue();
+            String name = encode(job.getKey());
+            // Replaying the results oldest first restores the history
+            for (int age = state.count - 1; age >= 0; age--) {
+                records.append(name).append('\t').append(state.getNumber(age)).append('\t')
+                        .append(toResult(state.get(age))).append('\t').append(state.getStreak(age)).append('\n');
+                count++;
+            }
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(compacted.toPath(), records.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            journalRecords = count;
+            compactedRecords = count;
+            compactions++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to compact Zulip notification state " + file, e);
+        }
+    }
+
+    private void append(String record) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(record);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            journalRecords++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write Zulip notification state " + file, e);
+        }
+    }
+
+    private static byte toByte(Result result) {
+        for (byte i = 0; i < RESULTS.length; i++) {
+            if (RESULTS[i] == result) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static Result toResult(byte value) {
+        return value != UNKNOWN ? RESULTS[value] : null;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Recent results of a job
+     */
+    public static final class History {
+
+        private final byte[] results;
+        private final int failureStreak;
+
+        private History(byte[] results, int failureStreak) {
+            this.results = results;
+            this.failureStreak = failureStreak;
+        }
+
+        /**
+         * Creates history that is not backed by the index, e.g. for jobs without full name
+         *
+         * @param results The results, newest first, null results are skipped
+         * @return The history
+         */
+        public static History of(Result... results) {
+            byte[] values = new byte[results.length];
+            int count = 0;
+            for (Result result : results) {
+                if (result != null) {
+                    values[count++] = toByte(result);
+                }
+            }
+            int streak = 0;
+            while (streak < count && values[streak] != SUCCESS) {
+                streak++;
+            }
+            return new History(Arrays.copyOf(values, count), streak);
+        }
+
+        /**
+         * @return Number of known results
+         */
+        public int size() {
+            return results.length;
+        }
+
+        /**
+         * @param age 0 for the newest result, 1 for the one before...
+         * @return The result
+         */
+        public Result get(int age) {
+            return toResult(results[age]);
+        }
+
+        /**
+         * @return Number of consecutive unsuccessful builds up to the newest one, 0 if the newest one succeeded
+         */
+        public int getFailureStreak() {
+            return failureStreak;
+        }
+
+        /**
+         * Counts result changes between consecutive builds
+         *
+         * @param window Number of newest results to look at
+         * @return The number of changes
+         */
+        public int countChanges(int window) {
+            int limit = Math.min(window, results.length);
+            int changes = 0;
+            for (int age = 1; age < limit; age++) {
+                if (results[age] != results[age - 1]) {
+                    changes++;
+                }
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Recent results of a job in a ring buffer, ordered by build number
+     */
+    private static final class JobState {
+
+        private final int[] numbers = new int[HISTORY_SIZE];
+        private final byte[] results = new byte[HISTORY_SIZE];
+        // Consecutive unsuccessful builds up to each build
+        private final int[] streaks = new int[HISTORY_SIZE];
+        private int newest = -1;
+        private int count;
+
+        /**
+         * @return true if the state changed
+         */
+        private boolean update(int buildNumber, byte result) {
+            int age = find(buildNumber);
+            if (age < count && numbers[slot(age)] == buildNumber) {
+                if (results[slot(age)] == result) {
+                    return false;
+                }
+            } else if (age == HISTORY_SIZE) {
+                // Older than every build kept
+                return false;
+            } else {
+                // Make room for the build, newer builds move up and the oldest one is dropped if the buffer is full
+                newest = (newest + 1) % HISTORY_SIZE;
+                count = Math.min(count + 1, HISTORY_SIZE);
+                for (int newer = 0; newer < age; newer++) {
+                    int from = slot(newer + 1);
+                    int to = slot(newer);
+                    numbers[to] = numbers[from];
+                    results[to] = results[from];
+                }
+                numbers[slot(age)] = buildNumber;
+            }
+            results[slot(age)] = result;
+            updateStreaks(age);
+            return true;
+        }
+
+        private void restoreStreak(int buildNumber, int streak) {
+            int age = find(buildNumber);
+            if (age < count && numbers[slot(age)] == buildNumber && results[slot(age)] != SUCCESS) {
+                streaks[slot(age)] = streak;
+                updateStreaks(age - 1);
+            }
+        }
+
+        /**
+         * Counts consecutive unsuccessful builds again from given build up to the newest one
+         */
+        private void updateStreaks(int oldestAge) {
+            for (int age = oldestAge; age >= 0; age--) {
+                int previous = age + 1 < count ? streaks[slot(age + 1)] : 0;
+                streaks[slot(age)] = results[slot(age)] == SUCCESS ? 0 : previous + 1;
+            }
+        }
+
+        /**
+         * @return Age of the newest build not newer than given build, {@link #count} if there is none
+         */
+        private int find(int buildNumber) {
+            int age = 0;
+            while (age < count && numbers[slot(age)] > buildNumber) {
+                age++;
+            }
+            return age;
+        }
+
+        private int slot(int age) {
+            return (newest - age + HISTORY_SIZE) % HISTORY_SIZE;
+        }
+
+        private int getNumber(int age) {
+            return numbers[slot(age)];
+        }
+
+        private int getStreak(int age) {
+            return streaks[slot(age)];
+        }
+
+        private byte get(int age) {
+            return results[slot(age)];
+        }
+    }
+
+    /**
+     * Keeps the index in sync with renamed and deleted jobs
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            get().rename(oldFullName, newFullName);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            get().remove(item.getFullName());
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client-side token bucket pacing requests of one Zulip bot account.<br/>
+ * Zulip enforces per-user API rate limits and reports them with {@code X-RateLimit-Limit},
+ * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} response headers. The bucket learns its capacity and
+ * refill rate from those headers and delays requests that would exceed the limit. Until the first response with
+ * rate limit headers arrives, requests are not paced at all.
+ */
+public class RateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+
+    private static final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String account;
+
+    private double capacity = Double.POSITIVE_INFINITY;
+    private double tokens = Double.POSITIVE_INFINITY;
+    /** Tokens added per millisecond */
+    private double refillRate;
+    private long lastRefill = System.currentTimeMillis();
+
+    RateLimiter(String account) {
+        this.account = account;
+    }
+
+    /**
+     * Gets the limiter of given bot account
+     *
+     * @param url   The Zulip server url
+     * @param email The Zulip bot email
+     * @return The shared limiter
+     */
+    public static RateLimiter get(String url, String email) {
+        return limiters.computeIfAbsent(email + " @ " + url, RateLimiter::new);
+    }
+
+    /**
+     * @return All limiters by account, for monitoring
+     */
+    public static Map<String, RateLimiter> getAll() {
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    /**
+     * @return The bot account this limiter paces
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Takes one token from the bucket
+     *
+     * @return Milliseconds to wait before the request may be sent, 0 if it may be sent right away
+     */
+    public synchronized long reserve() {
+        refill(System.currentTimeMillis());
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        if (refillRate <= 0) {
+            // Limit exhausted, but we don't know when it will reset - let the server decide
+            return 0;
+        }
+        tokens -= 1;
+        long wait = (long) Math.ceil(-tokens / refillRate);
+        LOGGER.log(Level.FINE, "Zulip rate limit of {0} reached, delaying request by {1} ms",
+                new Object[] { account, wait });
+        return wait;
+    }
+
+    /**
+     * Learns current limits from rate limit headers of a response
+     *
+     * @param response The Zulip response
+     */
+    public void update(HttpResponse<?> response) {
+        if (response == null) {
+            return;
+        }
+        OptionalDouble limit = header(response, "X-RateLimit-Limit");
+        OptionalDouble remaining = header(response, "X-RateLimit-Remaining");
+        OptionalDouble reset = header(response, "X-RateLimit-Reset");
+        if (!limit.isPresent() || !remaining.isPresent()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            refill(now);
+            capacity = limit.getAsDouble();
+            // Requests reserved but not answered yet are already accounted for in our tokens
+            tokens = Math.max(Math.min(tokens, remaining.getAsDouble()), -capacity);
+            if (reset.isPresent()) {
+                double untilReset = reset.getAsDouble() * 1000 - now;
+                double missing = capacity - remaining.getAsDouble();
+                if (untilReset > 0 && missing > 0) {
+                    refillRate = missing / untilReset;
+                } else if (untilReset > 0 && refillRate <= 0) {
+                    refillRate = capacity / untilReset;
+                }
+            }
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * @return Current token level, for monitoring. Negative when requests are being delayed, infinite when no
+     *         limit was learned yet.
+     */
+    public synchronized double getTokens() {
+        refill(System.currentTimeMillis());
+        return tokens;
+    }
+
+    /**
+     * @return Bucket capacity as reported by the server, infinite when no limit was learned yet
+     */
+    public synchronized double getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Whether the server reported its rate limit yet
+     */
+    public synchronized boolean isLimitKnown() {
+        return !Double.isInfinite(capacity);
+    }
+
+    /**
+     * @return Number of requests that may be sent right away, for display
+     */
+    public int getAvailableRequests() {
+        return (int) Math.max(0, Math.floor(getTokens()));
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill && refillRate > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+        }
+        lastRefill = now;
+    }
+
+    private static OptionalDouble header(HttpResponse<?> response, String name) {
+        Optional<String> value = response.headers().firstValue(name);
+        if (value.isPresent()) {
+            try {
+                return OptionalDouble.of(Double.parseDouble(value.get().trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.FINE, "Ignoring invalid {0} header: {1}", new Object[] { name, value.get() });
+            }
+        }
+        return OptionalDouble.empty();
+    }
+
+}
@@ -0,0 +1,191 @@
+package jenkins.plugins.zulip;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * Decides whether and when a failed request to Zulip is retried.<br/>
+ * Delays grow exponentially with jitter, {@code Retry-After} sent by the server (e.g. with 429 rate limit responses)
+ * takes precedence, and the total time spent retrying one message is capped by the retry budget.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOGGER = Logger.getLogger(RetryPolicy.class.getName());
+
+    /**
+     * Statuses telling that Zulip did not process the request. 502 and 504 are left out: a proxy answers with them
+     * when Zulip may have posted the message already.
+     */
+    public static final String DEFAULT_RETRY_STATUSES = "429,503";
+
+    /**
+     * Policy that never retries
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, "", false);
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long budgetMillis;
+    private final BitSet retryStatuses;
+    private final boolean retryConnectionErrors;
+
+    /**
+     * @param maxAttempts           Maximum number of attempts including the first one
+     * @param initialDelayMillis    Delay before the first retry, doubled with each further retry
+     * @param maxDelayMillis        Upper bound of the computed delay between attempts
+     * @param budgetMillis          Maximum total time spent delivering one message
+     * @param retryStatuses         Comma separated list of HTTP statuses that should be retried
+     * @param retryConnectionErrors Whether requests failing before they reached the server (connection refused,
+     *                              unknown host, ...) should be retried
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, long budgetMillis,
+            String retryStatuses, boolean retryConnectionErrors) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetMillis = budgetMillis;
+        this.retryStatuses = parseStatuses(retryStatuses);
+        this.retryConnectionErrors = retryConnectionErrors;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * Tests if request failed with given status should be attempted again. Posting a message is not idempotent, so
+     * only statuses telling that the request was not processed should be configured, e.g. 429 and 503. Gateway
+     * errors like 502 and 504 may come from a proxy after Zulip posted the message, retrying them risks duplicates.
+     *
+     * @param statusCode The HTTP status
+     * @return true if the status is configured as retryable
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode > 0 && retryStatuses.get(statusCode);
+    }
+
+    public boolean isRetryConnectionErrors() {
+        return retryConnectionErrors;
+    }
+
+    /**
+     * Tests if request failed without response should be attempted again. Only failures to connect are retried:
+     * posting a message is not idempotent, and a request that timed out or lost its connection after it was sent
+     * may have been processed already.
+     *
+     * @param error The failure
+     * @return true if connection errors are retried and the request never reached the server
+     */
+    public boolean isRetryable(Throwable error) {
+        if (!retryConnectionErrors) {
+            return false;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            // Connect timeouts are the only timeouts happening before the request is sent
+            if (cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException
+                    || cause instanceof UnknownHostException || cause instanceof UnresolvedAddressException
+                    || cause instanceof SSLHandshakeException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes delay before the next attempt
+     *
+     * @param attempt  Number of the attempt that just failed, starting with 1
+     * @param response The failed response or null if the request failed without one
+     * @return Delay in milliseconds
+     */
+    public long getDelayMillis(int attempt, HttpResponse<?> response) {
+        if (response != null) {
+            Long serverDelay = getRetryAfterMillis(response);
+            if (serverDelay != null) {
+                return serverDelay;
+            }
+        }
+        long backoff = initialDelayMillis << Math.min(attempt - 1, 30);
+        if (backoff <= 0 || backoff > maxDelayMillis) {
+            backoff = maxDelayMillis;
+        }
+        // Equal jitter: keep half of the backoff, randomize the rest so that senders don't retry in lockstep
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    /**
+     * Reads the delay requested by the server, either from {@code Retry-After} (seconds or HTTP date) or, for rate
+     * limited responses, from {@code X-RateLimit-Reset}
+     *
+     * @return Delay in milliseconds or null if the server did not ask for any
+     */
+    static Long getRetryAfterMillis(HttpResponse<?> response) {
+        Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            String value = retryAfter.get().trim();
+            try {
+                return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+            } catch (NumberFormatException e) {
+                try {
+                    Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                    return Math.max(0, date.toEpochMilli() - System.currentTimeMillis());
+                } catch (DateTimeParseException ex) {
+                    LOGGER.log(Level.FINE, "Ignoring invalid Retry-After header: {0}", value);
+                }
+            }
+        }
+        Optional<String> reset = response.headers().firstValue("X-RateLimit-Reset");
+        if (response.statusCode() == 429 && reset.isPresent()) {
+            try {
+                long resetMillis = (long) (Double.parseDouble(reset.get().trim()) * 1000);
+                return Math.max(0, resetMillis - System.currentTimeMillis());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.FINE, "Ignoring invalid X-RateLimit-Reset header: {0}", reset.get());
+            }
+        }
+        return null;
+    }
+
+    private static BitSet parseStatuses(String statuses) {
+        BitSet result = new BitSet(600);
+        if (statuses == null) {
+            return result;
+        }
+        for (String status : statuses.split(",")) {
+            String trimmed = status.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                int code = Integer.parseInt(trimmed);
+                if (code > 0 && code < 1000) {
+                    result.set(code);
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Ignoring invalid retryable HTTP status: {0}", trimmed);
+            }
+        }
+        return result;
+    }
+
+}
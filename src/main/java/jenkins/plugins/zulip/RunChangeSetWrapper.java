@@ -2,9 +2,11 @@ package jenkins.plugins.zulip;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import hudson.model.AbstractBuild;
 import hudson.model.Run;
+import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 import jenkins.scm.RunWithSCM;
 
@@ -44,4 +46,14 @@ public class RunChangeSetWrapper {
         return null;
     }
 
+    /**
+     * @return Users who may have caused the build result, empty if not known
+     */
+    public Set<User> getCulprits() {
+        if (build instanceof RunWithSCM) {
+            return ((RunWithSCM<?, ?>) build).getCulprits();
+        }
+        return Collections.emptySet();
+    }
+
 }
@@ -1,11 +1,44 @@
 package jenkins.plugins.zulip;
 
+import hudson.model.Result;
+
 public class SmartNotification {
 
     private static final String SMART_NOTIFICATION_GLOBAL = "global";
     private static final String SMART_NOTIFICATION_ENABLED = "enabled";
     private static final String SMART_NOTIFICATION_DISABLED = "disabled";
 
+    /**
+     * Smart notification modes
+     */
+    public enum Mode {
+        /** Notify about every build */
+        DISABLED("disabled"),
+        /** Notify about builds that did not succeed and the first success after them */
+        ENABLED("enabled"),
+        /** Notify when the result differs from the previous build */
+        STATE_CHANGE("stateChange"),
+        /** Notify when the result changes and every Nth build while the job keeps failing */
+        STILL_FAILING("stillFailing"),
+        /** Notify only about the first success after builds that did not succeed */
+        FIXED("fixed"),
+        /** Notify when the result changed N times within the last M builds */
+        FLAKY("flaky");
+
+        private final String value;
+
+        Mode(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return The value of the mode in job configuration
+         */
+        public String getValue() {
+            return value;
+        }
+    }
+
     /**
      * Evaluates whether smart notification are enabled based on the project and global settings
      *
@@ -20,4 +53,53 @@ public class SmartNotification {
         return globalSmartNotify;
     }
 
+    /**
+     * Gets the mode selected by project setting, if it is one of the modes beyond enabled/disabled
+     *
+     * @return The mode, or null if the project follows {@link #isSmartNotifyEnabled(String, boolean)}
+     */
+    public static Mode getExtendedMode(String projectSmartNotify) {
+        for (Mode mode : Mode.values()) {
+            if (mode != Mode.ENABLED && mode != Mode.DISABLED && mode.getValue().equalsIgnoreCase(projectSmartNotify)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates whether the newest build of given history should be notified
+     *
+     * @param mode           The smart notification mode
+     * @param history        Results of the job, the newest being the build to notify
+     * @param interval       For {@link Mode#STILL_FAILING}, notify every this many failing builds
+     * @param flakyChanges   For {@link Mode#FLAKY}, number of result changes that make the job flaky
+     * @param flakyWindow    For {@link Mode#FLAKY}, number of recent builds the changes are counted in
+     * @return true if the build should be notified
+     */
+    public static boolean shouldNotify(Mode mode, NotificationStateIndex.History history, int interval,
+            int flakyChanges, int flakyWindow) {
+        if (mode == Mode.DISABLED || history.size() == 0) {
+            return true;
+        }
+        Result result = history.get(0);
+        Result previous = history.size() > 1 ? history.get(1) : null;
+        int streak = history.getFailureStreak();
+        switch (mode) {
+            case ENABLED:
+                return previous == null || result != Result.SUCCESS || previous != Result.SUCCESS;
+            case STATE_CHANGE:
+                return result != previous;
+            case STILL_FAILING:
+                // The first failing build is a change, then every Nth one
+                return result != previous || streak > 0 && (streak - 1) % Math.max(1, interval) == 0;
+            case FIXED:
+                return previous != null && result == Result.SUCCESS && previous != Result.SUCCESS;
+            case FLAKY:
+                return history.countChanges(flakyWindow) >= Math.max(1, flakyChanges);
+            default:
+                return true;
+        }
+    }
+
 }
@@ -0,0 +1,540 @@
+package jenkins.plugins.zulip;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * Single Zulip message listing the latest result of every job notifying a stream and topic.<br/>
+ * Rows are rendered once when their job completes and kept in memory, so that updating the board only formats the
+ * changed row. Updates within the debounce delay are combined into a single message edit, which is sent without
+ * blocking the timer thread; updates arriving while an edit is in flight are sent once it completes. Board state is
+ * appended to a journal in {@code $JENKINS_HOME/zulip}, which is compacted when loaded and once it doubled. Rows of
+ * deleted and renamed jobs are removed, renamed jobs get a new row with their next build.
+ */
+public class StatusBoard {
+
+    private static final Logger LOGGER = Logger.getLogger(StatusBoard.class.getName());
+
+    private static final String HEADER = "**Build status**\n\n| | Job | Last build |\n|---|---|---|";
+
+    private static final Map<String, StatusBoard> boards = new HashMap<>();
+
+    private static Journal journal;
+
+    private final String stream;
+    private final String topic;
+    private final Journal boardJournal;
+
+    // Guarded by this
+    private final Map<String, String> rows = new TreeMap<>();
+    private long messageId;
+    private Zulip zulip;
+    private int debounceSeconds;
+    private boolean flushScheduled;
+    // Only one edit is in flight at a time, so that edits reach Zulip in order
+    private boolean sending;
+    private boolean flushAgain;
+
+    StatusBoard(String stream, String topic, Journal boardJournal) {
+        this.stream = stream;
+        this.topic = topic;
+        this.boardJournal = boardJournal;
+    }
+
+    /**
+     * Gets the board of given stream and topic, loading the journal on first use
+     *
+     * @param stream The stream
+     * @param topic  The topic
+     * @return The board
+     */
+    public static synchronized StatusBoard get(String stream, String topic) {
+        load();
+        return boards.computeIfAbsent(key(stream, topic), key -> new StatusBoard(stream, topic, journal));
+    }
+
+    /**
+     * Removes row of the job from all boards
+     *
+     * @param job Key of the job row, e.g. the job full name
+     */
+    public static void removeJob(String job) {
+        StatusBoard[] loaded;
+        synchronized (StatusBoard.class) {
+            load();
+            loaded = boards.values().toArray(new StatusBoard[0]);
+        }
+        for (StatusBoard board : loaded) {
+            board.remove(job);
+        }
+    }
+
+    private static void load() {
+        if (journal == null) {
+            journal = new Journal(new File(Jenkins.get().getRootDir(), "zulip/status-board.log"));
+            journal.load(boards);
+        }
+    }
+
+    /**
+     * Records result of a job and schedules the board message to be updated
+     *
+     * @param zulip           The Zulip sender
+     * @param debounceSeconds Delay to wait for further updates before editing the message
+     * @param job             Key of the job row, e.g. the job full name
+     * @param jobLink         Markdown link of the job
+     * @param result          The build result
+     * @param buildLink       Markdown link of the build
+     */
+    public void update(Zulip zulip, int debounceSeconds, String job, String jobLink, Result result,
+            String buildLink) {
+        String row = "| " + getIcon(result) + " | " + jobLink + " | " + buildLink + " |";
+        synchronized (this) {
+            this.zulip = zulip;
+            this.debounceSeconds = debounceSeconds;
+            if (row.equals(rows.put(job, row))) {
+                return;
+            }
+            if (boardJournal != null) {
+                boardJournal.queueRow(stream, topic, job, row);
+            }
+        }
+        // Written outside the board monitor, so that flushes and other builds do not wait for the file
+        if (boardJournal != null) {
+            boardJournal.write();
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Removes row of the job and schedules the board message to be updated
+     *
+     * @param job Key of the job row
+     */
+    void remove(String job) {
+        synchronized (this) {
+            if (rows.remove(job) == null) {
+                return;
+            }
+            if (boardJournal != null) {
+                boardJournal.queueRemoval(stream, topic, job);
+            }
+        }
+        if (boardJournal != null) {
+            boardJournal.write();
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        int delay;
+        synchronized (this) {
+            // Without sender, e.g. right after restart, the next update sends the board
+            if (flushScheduled || zulip == null) {
+                return;
+            }
+            flushScheduled = true;
+            delay = debounceSeconds;
+        }
+        Timer.get().schedule(this::flush, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return The board message content
+     */
+    public synchronized String render() {
+        StringBuilder content = new StringBuilder(HEADER);
+        int rendered = 0;
+        for (String row : rows.values()) {
+            // Leave room for the summary line within the Zulip message length limit
+            if (content.length() + row.length() + 100 > MessageCoalescer.MAX_MESSAGE_LENGTH) {
+                content.append("\n\n... and ").append(rows.size() - rendered).append(" more jobs");
+                break;
+            }
+            content.append('\n').append(row);
+            rendered++;
+        }
+        return content.toString();
+    }
+
+    public synchronized long getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Posts the board message or edits it with the current rows. Does not wait for Zulip, the next edit is sent when
+     * this one completes.
+     */
+    void flush() {
+        String content;
+        long id;
+        Zulip sender;
+        synchronized (this) {
+            flushScheduled = false;
+            if (sending) {
+                flushAgain = true;
+                return;
+            }
+            if (zulip == null) {
+                return;
+            }
+            sending = true;
+            content = render();
+            id = messageId;
+            sender = zulip;
+        }
+        CompletableFuture<Void> sent;
+        if (id != 0) {
+            sent = sender.updateMessageAsync(id, content)
+                    .handle((response, error) -> response)
+                    .thenCompose(response -> {
+                        if (response == null || response.statusCode() != 400) {
+                            return CompletableFuture.<Void>completedFuture(null);
+                        }
+                        // Most likely the board message was deleted, start over with a new one
+                        LOGGER.log(Level.INFO, "Zulip status board message {0} can''t be edited, posting new one",
+                                id);
+                        return post(sender, content);
+                    });
+        } else {
+            sent = post(sender, content);
+        }
+        sent.whenComplete((ignored, error) -> {
+            boolean again;
+            synchronized (this) {
+                sending = false;
+                again = flushAgain;
+                flushAgain = false;
+            }
+            if (again) {
+                flush();
+            }
+        });
+    }
+
+    private CompletableFuture<Void> post(Zulip sender, String content) {
+        return sender.sendUnrecordedStreamMessageAsync(stream, topic, content).handle((response, error) -> {
+            long postedId = Zulip.getMessageId(response);
+            if (postedId != 0) {
+                synchronized (this) {
+                    messageId = postedId;
+                    if (boardJournal != null) {
+                        boardJournal.queueMessageId(stream, topic, postedId);
+                    }
+                }
+                if (boardJournal != null) {
+                    boardJournal.write();
+                }
+            }
+            return null;
+        });
+    }
+
+    private static String getIcon(Result result) {
+        if (result == Result.SUCCESS) {
+            return ":check_mark:";
+        }
+        if (result == Result.UNSTABLE) {
+            return ":warning:";
+        }
+        return ":cross_mark:";
+    }
+
+    private static String key(String stream, String topic) {
+        return stream + "\n" + topic;
+    }
+
+    /**
+     * Append-only log of board changes. Lines are tab separated: {@code M stream topic messageId} for the board
+     * message, {@code R stream topic job row} for a row and {@code D stream topic job} for a removed row.<br/>
+     * Records are queued in memory, so that boards can add them while holding their monitor, and written to the file
+     * by {@link #write()}. The journal keeps the board state it holds, so that it can be compacted without locking
+     * the boards.
+     */
+    static final class Journal {
+
+        private final File file;
+        // Serializes writes to the file, taken before the journal monitor
+        private final Object writeLock = new Object();
+
+        // Guarded by this
+        private final Map<String, BoardState> state = new HashMap<>();
+        private final StringBuilder pending = new StringBuilder();
+        private int pendingRecords;
+
+        // Guarded by writeLock
+        private int journalRecords;
+        // Records left by the last compaction
+        private int compactedRecords;
+        private int compactions;
+
+        Journal(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Loads boards from the journal and rewrites it with only their current state
+         *
+         * @param boards Map to add the loaded boards to
+         */
+        void load(Map<String, StatusBoard> boards) {
+            synchronized (writeLock) {
+                if (!file.exists()) {
+                    return;
+                }
+                try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        parse(line);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read Zulip status board journal " + file, e);
+                }
+                BoardState[] loaded;
+                synchronized (this) {
+                    loaded = state.values().toArray(new BoardState[0]);
+                }
+                // Boards take the journal monitor while holding theirs, never the other way round
+                for (BoardState boardState : loaded) {
+                    StatusBoard board = boards.computeIfAbsent(key(boardState.stream, boardState.topic),
+                            key -> new StatusBoard(boardState.stream, boardState.topic, this));
+                    synchronized (board) {
+                        board.messageId = boardState.messageId;
+                        board.rows.putAll(boardState.rows);
+                    }
+                }
+                compact();
+            }
+        }
+
+        /**
+         * Records row of a board and writes it to the file
+         */
+        void appendRow(String stream, String topic, String job, String row) {
+            queueRow(stream, topic, job, row);
+            write();
+        }
+
+        /**
+         * Records removed row of a board and writes it to the file
+         */
+        void appendRemoval(String stream, String topic, String job) {
+            queueRemoval(stream, topic, job);
+            write();
+        }
+
+        /**
+         * Records board message and writes it to the file
+         */
+        void appendMessageId(String stream, String topic, long messageId) {
+            queueMessageId(stream, topic, messageId);
+            write();
+        }
+
+        synchronized void queueRow(String stream, String topic, String job, String row) {
+            getState(stream, topic).rows.put(job, row);
+            queue("R\t" + encode(stream) + "\t" + encode(topic) + "\t" + encode(job) + "\t" + encode(row) + "\n");
+        }
+
+        synchronized void queueRemoval(String stream, String topic, String job) {
+            getState(stream, topic).rows.remove(job);
+            queue("D\t" + encode(stream) + "\t" + encode(topic) + "\t" + encode(job) + "\n");
+        }
+
+        synchronized void queueMessageId(String stream, String topic, long messageId) {
+            getState(stream, topic).messageId = messageId;
+            queue("M\t" + encode(stream) + "\t" + encode(topic) + "\t" + messageId + "\n");
+        }
+
+        /**
+         * Writes queued records to the file, compacting it once it doubled since the last compaction
+         */
+        void write() {
+            synchronized (writeLock) {
+                String records;
+                int count;
+                synchronized (this) {
+                    records = pending.toString();
+                    count = pendingRecords;
+                    pending.setLength(0);
+                    pendingRecords = 0;
+                }
+                if (count == 0) {
+                    return;
+                }
+                if (append(records)) {
+                    journalRecords += count;
+                }
+                // Compact once the journal doubled since the last compaction, so that appends stay amortized O(1)
+                if (journalRecords > Math.max(1000, compactedRecords * 2)) {
+                    compact();
+                }
+            }
+        }
+
+        /**
+         * @return Number of compactions, including the one on load
+         */
+        int getCompactions() {
+            synchronized (writeLock) {
+                return compactions;
+            }
+        }
+
+        private void queue(String record) {
+            pending.append(record);
+            pendingRecords++;
+        }
+
+        private BoardState getState(String stream, String topic) {
+            return state.computeIfAbsent(key(stream, topic), key -> new BoardState(stream, topic));
+        }
+
+        private void parse(String line) {
+            String[] fields = line.split("\t", -1);
+            try {
+                String stream = decode(fields[1]);
+                String topic = decode(fields[2]);
+                synchronized (this) {
+                    BoardState board = getState(stream, topic);
+                    if ("M".equals(fields[0]) && fields.length == 4) {
+                        board.messageId = Long.parseLong(fields[3]);
+                    } else if ("R".equals(fields[0]) && fields.length == 5) {
+                        board.rows.put(decode(fields[3]), decode(fields[4]));
+                    } else if ("D".equals(fields[0]) && fields.length == 4) {
+                        board.rows.remove(decode(fields[3]));
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Skipping malformed Zulip status board record: {0}", line);
+            }
+        }
+
+        private void compact() {
+            StringBuilder records = new StringBuilder();
+            int count = 0;
+            String queued;
+            int queuedRecords;
+            synchronized (this) {
+                for (BoardState board : state.values()) {
+                    if (board.messageId != 0) {
+                        records.append("M\t").append(encode(board.stream)).append('\t').append(encode(board.topic))
+                                .append('\t').append(board.messageId).append('\n');
+                        count++;
+                    }
+                    for (Map.Entry<String, String> row : board.rows.entrySet()) {
+                        records.append("R\t").append(encode(board.stream)).append('\t').append(encode(board.topic))
+                                .append('\t').append(encode(row.getKey())).append('\t')
+                                .append(encode(row.getValue())).append('\n');
+                        count++;
+                    }
+                }
+                // Part of the compacted state already
+                queued = pending.toString();
+                queuedRecords = pendingRecords;
+                pending.setLength(0);
+                pendingRecords = 0;
+            }
+            File compacted = new File(file.getPath() + ".tmp");
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+                Files.write(compacted.toPath(), records.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                journalRecords = count;
+                compactedRecords = count;
+                compactions++;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compact Zulip status board journal " + file, e);
+                // The old journal is still in place, keep the records it misses
+                synchronized (this) {
+                    pending.insert(0, queued);
+                    pendingRecords += queuedRecords;
+                }
+            }
+        }
+
+        private boolean append(String records) {
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = StandardCharsets.UTF_8.encode(records);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write Zulip status board journal " + file, e);
+                return false;
+            }
+        }
+
+        private static String encode(String value) {
+            return URLEncoder.encode(value != null ? value : "", StandardCharsets.UTF_8);
+        }
+
+        private static String decode(String value) {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Board state held by the journal
+         */
+        private static final class BoardState {
+
+            private final String stream;
+            private final String topic;
+            private final Map<String, String> rows = new TreeMap<>();
+            private long messageId;
+
+            BoardState(String stream, String topic) {
+                this.stream = stream;
+                this.topic = topic;
+            }
+        }
+    }
+
+    /**
+     * Keeps the boards in sync with renamed and deleted jobs
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            // The row links to the old location, the job gets a new row with its next build
+            removeJob(oldFullName);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            removeJob(item.getFullName());
+        }
+    }
+
+}
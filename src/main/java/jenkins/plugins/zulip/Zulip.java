@@ -1,6 +1,5 @@
 package jenkins.plugins.zulip;
 
-import java.io.IOException;
 import java.net.Authenticator;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
@@ -9,34 +8,36 @@ import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import hudson.ProxyConfiguration;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
 
 /**
  * Sends message to Zulip stream
  */
 public class Zulip {
 
-    private static final Charset encodingCharset = StandardCharsets.UTF_8;
-
     private String url;
     private String email;
     private String apiKey;
     private static final Logger LOGGER = Logger.getLogger(Zulip.class.getName());
 
+    private static final long[] NO_OUTBOX_IDS = new long[0];
+
     public Zulip(String url, String email, Secret apiKey) {
         super();
         if (url != null && url.length() > 0 && !url.endsWith("/")) {
@@ -108,13 +109,35 @@ public class Zulip {
         });
     }
 
+    /**
+     * Gets the {@link HttpClient} for this Zulip server from {@link ZulipClientRegistry}, so that connections are
+     * reused across messages
+     *
+     * @return The shared client
+     */
     protected HttpClient getClient() throws MalformedURLException {
+        return getConnection().getClient();
+    }
+
+    /**
+     * Gets the shared client together with the precomputed authorization header of the bot account
+     *
+     * @return The shared connection
+     */
+    protected ZulipClientRegistry.Connection getConnection() throws MalformedURLException {
         ProxyConfiguration proxyConfiguration = Jenkins.get().proxy;
+        DescriptorImpl globalConfig = getGlobalConfig();
+        int connectTimeout = globalConfig != null ? globalConfig.getConnectTimeout() : 0;
 
-        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder();
-        configureProxy(httpClientBuilder, proxyConfiguration);
-        configureAuthenticator(httpClientBuilder, proxyConfiguration);
-        return httpClientBuilder.build();
+        return ZulipClientRegistry.getConnection(url, email, apiKey, proxyConfiguration, connectTimeout, () -> {
+            HttpClient.Builder httpClientBuilder = HttpClient.newBuilder();
+            if (connectTimeout > 0) {
+                httpClientBuilder.connectTimeout(Duration.ofSeconds(connectTimeout));
+            }
+            configureProxy(httpClientBuilder, proxyConfiguration);
+            configureAuthenticator(httpClientBuilder, proxyConfiguration);
+            return httpClientBuilder.build();
+        });
     }
 
     protected URI getApiEndpoint(String method) {
@@ -132,6 +155,10 @@ public class Zulip {
         return URI.create(uri.toString());
     }
 
+    public String getUrl() {
+        return this.url;
+    }
+
     public String getApiKey() {
         return this.apiKey;
     }
@@ -140,43 +167,298 @@ public class Zulip {
         return this.email;
     }
 
+    /**
+     * Posts to Zulip API and waits for the first attempt to complete. Retries, if any are needed, continue in the
+     * background.
+     *
+     * @param method     The API method
+     * @param parameters The form parameters
+     * @return The response to the first attempt or null if it failed without response
+     */
     public HttpResponse<String> post(String method, Map<String, String> parameters) {
-        try {
-            String body = parameters.entrySet()
-                    .stream()
-                    .map(e -> encodeValue(e))
-                    .collect(Collectors.joining("&"));
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(getApiEndpoint(method))
-                    // TODO: It would be nice if this version number read from the Maven XML file
-                    // (which is possible, but annoying)
-                    // http://stackoverflow.com/questions/8829147/maven-version-number-in-java-file
-                    .header("User-Agent", "ZulipJenkins/0.1.2")
-                    .header("Content-Type", "application/x-www-form-urlencoded")
-                    .POST(HttpRequest.BodyPublishers.ofString(body, encodingCharset))
-                    .build();
-
-            HttpClient client = getClient();
-
-            HttpResponse<String> httpResponse = client.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-
-            if (httpResponse.statusCode() != 200) {
-                LOGGER.log(Level.SEVERE,
-                        "Error sending Zulip message:\nStatus:" + httpResponse.statusCode() + "\nBody:"
-                                + httpResponse.body() + "\n\n" +
-                                "We sent:" + body);
-            }
+        return await(deliver("POST", method, parameters, NO_OUTBOX_IDS, true, false));
+    }
+
+    /**
+     * Patches resource through Zulip API and waits for the first attempt to complete
+     *
+     * @param method     The API method
+     * @param parameters The form parameters
+     * @return The response to the first attempt or null if it failed without response
+     */
+    public HttpResponse<String> patch(String method, Map<String, String> parameters) {
+        return await(deliver("PATCH", method, parameters, NO_OUTBOX_IDS, true, false));
+    }
 
-            return httpResponse;
-        } catch (IOException | InterruptedException e) {
+    private HttpResponse<String> await(MessageDelivery delivery) {
+        try {
+            return delivery.getFirstAttempt().get();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e.getCause());
+        } catch (InterruptedException e) {
             LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
         }
 
         return null;
     }
 
+    /**
+     * Posts to Zulip API without blocking the calling thread
+     *
+     * @param method     The API method
+     * @param parameters The form parameters
+     * @return Future completed with the final response (after retries), or exceptionally if the request could not
+     *         be sent
+     */
+    public CompletableFuture<HttpResponse<String>> postAsync(String method, Map<String, String> parameters) {
+        return deliver("POST", method, parameters, NO_OUTBOX_IDS, true, false).getResult();
+    }
+
+    /**
+     * Patches resource through Zulip API without blocking the calling thread
+     *
+     * @param method     The API method
+     * @param parameters The form parameters
+     * @return Future completed with the final response (after retries), or exceptionally if the request could not
+     *         be sent
+     */
+    public CompletableFuture<HttpResponse<String>> patchAsync(String method, Map<String, String> parameters) {
+        return deliver("PATCH", method, parameters, NO_OUTBOX_IDS, true, false).getResult();
+    }
+
+    /**
+     * Sends request left pending in the {@link ZulipOutbox} again
+     *
+     * @param entry The outbox entry
+     * @return Future completed with the final response
+     */
+    public CompletableFuture<HttpResponse<String>> resend(ZulipOutbox.Entry entry) {
+        Map<String, String> parameters = new HashMap<>(entry.getParameters());
+        parameters.put("api-key", this.getApiKey());
+        parameters.put("email", this.getEmail());
+        return deliver("POST", entry.getMethod(), parameters, new long[] { entry.getId() }, true, true).getResult();
+    }
+
+    /**
+     * @param outboxIds  Outbox entries recorded for the request already, the request is recorded here if none are
+     *                   given and the outbox is enabled
+     * @param recordable Whether the request may be recorded in the outbox at all
+     * @param replay     Whether the request is sent again from the outbox, rather than being new
+     */
+    private MessageDelivery deliver(String httpMethod, String method, Map<String, String> parameters,
+            long[] outboxIds, boolean recordable, boolean replay) {
+        ZulipClientRegistry.Connection connection;
+        try {
+            connection = getConnection();
+        } catch (MalformedURLException e) {
+            LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
+            if (outboxIds.length > 0) {
+                ZulipOutbox outbox = ZulipOutbox.get();
+                for (long id : outboxIds) {
+                    outbox.release(id);
+                }
+            }
+            return MessageDelivery.failed(e);
+        }
+
+        DescriptorImpl globalConfig = getGlobalConfig();
+        boolean preemptiveAuth = globalConfig != null && globalConfig.isPreemptiveAuth();
+
+        Map<String, String> form = parameters;
+        if (preemptiveAuth) {
+            // Credentials travel in the Authorization header already
+            form = new LinkedHashMap<>();
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                if (!isCredential(parameter.getKey())) {
+                    form.put(parameter.getKey(), parameter.getValue());
+                }
+            }
+        }
+        FormBodyPublisher body = new FormBodyPublisher(form);
+
+        HttpRequest.Builder httpRequestBuilder = HttpRequest.newBuilder()
+                .uri(getApiEndpoint(method))
+                // TODO: It would be nice if this version number read from the Maven XML file
+                // (which is possible, but annoying)
+                // http://stackoverflow.com/questions/8829147/maven-version-number-in-java-file
+                .header("User-Agent", "ZulipJenkins/0.1.2")
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .method(httpMethod, body);
+        if (globalConfig != null && globalConfig.getRequestTimeout() > 0) {
+            httpRequestBuilder.timeout(Duration.ofSeconds(globalConfig.getRequestTimeout()));
+        }
+        if (preemptiveAuth) {
+            // Skip the 401 challenge round-trip the Authenticator would need
+            httpRequestBuilder.header("Authorization", connection.getAuthorization());
+        }
+        HttpRequest httpRequest = httpRequestBuilder.build();
+        HttpClient client = connection.getClient();
+
+        RetryPolicy retryPolicy = globalConfig != null ? globalConfig.getRetryPolicy() : RetryPolicy.NONE;
+        CircuitBreaker circuitBreaker = globalConfig != null ? globalConfig.getCircuitBreaker(url) : null;
+        MessageDelivery delivery = new MessageDelivery(client, httpRequest, body, retryPolicy,
+                RateLimiter.get(url, email)).withCircuitBreaker(circuitBreaker);
+        if (globalConfig != null && globalConfig.getNotificationDeadline() > 0) {
+            delivery.withDeadline(System.currentTimeMillis() + globalConfig.getNotificationDeadline() * 1000L);
+        }
+
+        boolean circuitOpen = circuitBreaker != null && circuitBreaker.getState() == CircuitBreaker.State.OPEN;
+        if (circuitOpen) {
+            LOGGER.log(Level.WARNING, "Circuit breaker for Zulip server {0} is open", url);
+        }
+
+        // Only new messages go to the outbox, a stale edit replayed later could overwrite a newer one
+        boolean outboxEnabled = globalConfig != null && globalConfig.isOutboxEnabled();
+        if (recordable && (outboxEnabled || outboxIds.length > 0) && "POST".equals(httpMethod)) {
+            ZulipOutbox outbox = ZulipOutbox.get();
+            boolean drop = !replay && circuitOpen && globalConfig != null
+                    && CircuitBreaker.OpenPolicy.fromString(globalConfig.getCircuitBreakerOpenPolicy())
+                            == CircuitBreaker.OpenPolicy.DROP;
+            if (drop) {
+                // Dropped like any other new message, even if the dispatcher recorded it while it was waiting
+                for (long id : outboxIds) {
+                    outbox.complete(id);
+                }
+            } else {
+                long[] ids = outboxIds.length > 0 || !outboxEnabled ? outboxIds
+                        : new long[] { outbox.record(method, parameters) };
+                // An attempt still in flight at the deadline may deliver the message after all
+                delivery.getSettled().whenComplete((httpResponse, error) -> {
+                    // Keep the entries for replay only if sending them again could help
+                    boolean delivered = httpResponse != null && !retryPolicy.isRetryable(httpResponse.statusCode());
+                    for (long id : ids) {
+                        if (delivered) {
+                            outbox.complete(id);
+                        } else {
+                            outbox.release(id);
+                        }
+                    }
+                });
+            }
+        }
+
+        return delivery.start();
+    }
+
+    /**
+     * Gets Zulip global configuration
+     *
+     * @return The global configuration, or null when not running inside Jenkins
+     */
+    protected DescriptorImpl getGlobalConfig() {
+        return Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+    }
+
     public HttpResponse<String> sendStreamMessage(String stream, String subject, String message) {
+        return post("messages", getStreamMessageParameters(stream, subject, message));
+    }
+
+    /**
+     * Sends stream message without blocking the calling thread
+     *
+     * @see #sendStreamMessage(String, String, String)
+     */
+    public CompletableFuture<HttpResponse<String>> sendStreamMessageAsync(String stream, String subject,
+            String message) {
+        return postAsync("messages", getStreamMessageParameters(stream, subject, message));
+    }
+
+    /**
+     * Records stream message in the {@link ZulipOutbox} before it is sent, so that it survives restart while it
+     * waits in {@link ZulipDispatcher}
+     *
+     * @return Id of the outbox entry
+     */
+    long recordStreamMessage(String stream, String subject, String message) {
+        return ZulipOutbox.get().record("messages", getStreamMessageParameters(stream, subject, message));
+    }
+
+    /**
+     * Sends stream message recorded in the outbox already, waiting for the first attempt
+     *
+     * @param outboxIds Entries of the messages this one delivers, see
+     *                  {@link #recordStreamMessage(String, String, String)}
+     * @see #sendStreamMessage(String, String, String)
+     */
+    HttpResponse<String> sendStreamMessage(String stream, String subject, String message, long[] outboxIds) {
+        return await(deliver("POST", "messages", getStreamMessageParameters(stream, subject, message), outboxIds,
+                true, false));
+    }
+
+    /**
+     * Sends stream message recorded in the outbox already without blocking the calling thread
+     *
+     * @param outboxIds Entries of the messages this one delivers, see
+     *                  {@link #recordStreamMessage(String, String, String)}
+     * @see #sendStreamMessage(String, String, String)
+     */
+    CompletableFuture<HttpResponse<String>> sendStreamMessageAsync(String stream, String subject, String message,
+            long[] outboxIds) {
+        return deliver("POST", "messages", getStreamMessageParameters(stream, subject, message), outboxIds, true,
+                false).getResult();
+    }
+
+    /**
+     * Sends stream message without recording it in the {@link ZulipOutbox}, for messages that are replaced rather
+     * than replayed after restart, e.g. the {@link StatusBoard} message
+     *
+     * @see #sendStreamMessageAsync(String, String, String)
+     */
+    CompletableFuture<HttpResponse<String>> sendUnrecordedStreamMessageAsync(String stream, String subject,
+            String message) {
+        return deliver("POST", "messages", getStreamMessageParameters(stream, subject, message), NO_OUTBOX_IDS, false,
+                false).getResult();
+    }
+
+    /**
+     * Replaces content of previously sent message
+     *
+     * @param messageId The message id, see {@link #getMessageId(HttpResponse)}
+     * @param message   The new message content
+     * @return The response to the first attempt or null if it failed without response
+     */
+    public HttpResponse<String> updateMessage(long messageId, String message) {
+        return patch("messages/" + messageId, getUpdateMessageParameters(message));
+    }
+
+    /**
+     * Replaces content of previously sent message without blocking the calling thread
+     *
+     * @see #updateMessage(long, String)
+     */
+    public CompletableFuture<HttpResponse<String>> updateMessageAsync(long messageId, String message) {
+        return patchAsync("messages/" + messageId, getUpdateMessageParameters(message));
+    }
+
+    /**
+     * Reads id of the message created by successful {@code messages} request
+     *
+     * @param response The Zulip response, may be null
+     * @return The message id or 0 if the response does not carry one
+     */
+    public static long getMessageId(HttpResponse<String> response) {
+        if (response == null || response.statusCode() != 200 || response.body() == null) {
+            return 0;
+        }
+        try {
+            return JSONObject.fromObject(response.body()).optLong("id", 0);
+        } catch (JSONException e) {
+            LOGGER.log(Level.FINE, "Unexpected Zulip response: {0}", response.body());
+            return 0;
+        }
+    }
+
+    private Map<String, String> getUpdateMessageParameters(String message) {
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        parameters.put("api-key", this.getApiKey());
+        parameters.put("email", this.getEmail());
+        parameters.put("content", message);
+
+        return parameters;
+    }
+
+    private Map<String, String> getStreamMessageParameters(String stream, String subject, String message) {
         Map<String, String> parameters = new HashMap<String, String>();
 
         parameters.put("api-key", this.getApiKey());
@@ -186,13 +468,11 @@ public class Zulip {
         parameters.put("subject", subject);
         parameters.put("content", message);
 
-        return post("messages", parameters);
+        return parameters;
     }
 
-    private String encodeValue(Map.Entry<String, String> value) {
-        String toEncode = value.getValue() != null ? value.getValue() : "";
-        String encodedValue = URLEncoder.encode(toEncode, encodingCharset);
-
-        return value.getKey() + "=" + encodedValue;
+    private static boolean isCredential(String parameter) {
+        return "api-key".equals(parameter) || "email".equals(parameter);
     }
+
 }
@@ -0,0 +1,174 @@
+package jenkins.plugins.zulip;
+
+import java.net.MalformedURLException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.ProxyConfiguration;
+import hudson.util.Secret;
+
+/**
+ * Registry of long-lived {@link HttpClient} instances shared by all {@link Zulip} senders.<br/>
+ * Building a client starts a new selector thread and connection pool, so reusing it lets consecutive messages
+ * share keep-alive connections (and TLS sessions) instead of handshaking for every notification. Clients are keyed
+ * by Zulip server, credentials, Jenkins proxy settings and connect timeout and are rebuilt only when one of them changes.<br/>
+ * Along with the client, the registry keeps the precomputed {@code Authorization} header of the bot account, so
+ * that requests can authenticate preemptively without encoding the credentials again.
+ */
+public class ZulipClientRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipClientRegistry.class.getName());
+
+    private static final ConcurrentMap<Key, Connection> clients = new ConcurrentHashMap<>();
+
+    private static volatile String lastProxyFingerprint;
+
+    /**
+     * Creates a new {@link HttpClient} when the registry holds none for the requested key
+     */
+    @FunctionalInterface
+    public interface ClientFactory {
+        HttpClient create() throws MalformedURLException;
+    }
+
+    /**
+     * Computes value of the {@code Authorization} header for the bot account
+     *
+     * @param email  The bot email
+     * @param apiKey The bot API key
+     * @return The basic authorization header value
+     */
+    public static String basicAuthorization(String email, String apiKey) {
+        String credentials = (email != null ? email : "") + ":" + (apiKey != null ? apiKey : "");
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Shared client together with the credentials it was built for
+     */
+    public static final class Connection {
+
+        private final HttpClient client;
+        private final String authorization;
+
+        private Connection(HttpClient client, String email, String apiKey) {
+            this.client = client;
+            this.authorization = basicAuthorization(email, apiKey);
+        }
+
+        public HttpClient getClient() {
+            return client;
+        }
+
+        /**
+         * @return Value of the {@code Authorization} header authenticating the bot account
+         */
+        public String getAuthorization() {
+            return authorization;
+        }
+    }
+
+    /**
+     * Gets the shared client with its authorization header for given server, credentials, proxy and timeout,
+     * building it on first use
+     *
+     * @param url                   The Zulip server url
+     * @param email                 The Zulip bot email
+     * @param apiKey                The Zulip bot api key
+     * @param proxyConfiguration    The Jenkins proxy configuration, may be null
+     * @param connectTimeoutSeconds The connect timeout the client is built with, 0 for none
+     * @param factory               Builds the client if none is registered yet
+     * @return The shared connection
+     */
+    public static Connection getConnection(String url, String email, String apiKey,
+            ProxyConfiguration proxyConfiguration, int connectTimeoutSeconds, ClientFactory factory)
+            throws MalformedURLException {
+        String proxyFingerprint = fingerprint(proxyConfiguration);
+        if (!proxyFingerprint.equals(lastProxyFingerprint)) {
+            if (lastProxyFingerprint != null) {
+                // Jenkins proxy settings changed, clients built for the old proxy are of no use anymore
+                LOGGER.log(Level.FINE, "Jenkins proxy configuration changed, discarding {0} cached clients",
+                        clients.size());
+                clients.clear();
+            }
+            lastProxyFingerprint = proxyFingerprint;
+        }
+        Key key = new Key(url, email, apiKey, proxyFingerprint, connectTimeoutSeconds);
+        Connection connection = clients.get(key);
+        if (connection == null) {
+            LOGGER.log(Level.FINE, "Building new HttpClient for {0}", url);
+            connection = new Connection(factory.create(), email, apiKey);
+            Connection existing = clients.putIfAbsent(key, connection);
+            if (existing != null) {
+                connection = existing;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Drops all cached clients, e.g. after the global configuration was changed
+     */
+    public static void invalidate() {
+        clients.clear();
+    }
+
+    /**
+     * @return Number of clients currently held by the registry
+     */
+    public static int size() {
+        return clients.size();
+    }
+
+    private static String fingerprint(ProxyConfiguration proxyConfiguration) {
+        if (proxyConfiguration == null) {
+            return "";
+        }
+        return proxyConfiguration.name + ":" + proxyConfiguration.port + ":" + proxyConfiguration.getUserName()
+                + ":" + Secret.toString(proxyConfiguration.getSecretPassword()) + ":"
+                + proxyConfiguration.getNoProxyHost();
+    }
+
+    private static final class Key {
+
+        private final String url;
+        private final String email;
+        private final String apiKey;
+        private final String proxy;
+        private final int connectTimeout;
+
+        private Key(String url, String email, String apiKey, String proxy, int connectTimeout) {
+            this.url = url;
+            this.email = email;
+            this.apiKey = apiKey;
+            this.proxy = proxy;
+            this.connectTimeout = connectTimeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(url, other.url) && Objects.equals(email, other.email)
+                    && Objects.equals(apiKey, other.apiKey) && Objects.equals(proxy, other.proxy)
+                    && connectTimeout == other.connectTimeout;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, email, apiKey, proxy, connectTimeout);
+        }
+    }
+
+}
@@ -0,0 +1,349 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.init.Terminator;
+
+/**
+ * Hands stream messages over to {@link Zulip}.<br/>
+ * By default messages are sent on the calling thread. When asynchronous mode is enabled in the global
+ * configuration, messages are put into a bounded in-process queue and handed over to the non-blocking HTTP client with
+ * a bounded number of requests in flight, so build steps return immediately no matter how slow the Zulip server is and
+ * no thread waits for it. When coalescing is enabled, bursts of messages
+ * to the same stream and topic are first combined by {@link MessageCoalescer}. When duplicate suppression is
+ * enabled, messages repeated to the same stream and topic within the window are dropped by {@link DuplicateFilter}.
+ * Callers that must not block at all, like Pipeline steps, use the non-blocking HTTP client instead of the calling
+ * thread. When the outbox is enabled, messages that wait in the queue or in a batch are recorded in
+ * {@link ZulipOutbox} as soon as they are accepted, so that a restart does not lose them.
+ */
+public class ZulipDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipDispatcher.class.getName());
+
+    private static final ZulipDispatcher INSTANCE = new ZulipDispatcher();
+
+    private static final long[] NO_OUTBOX_IDS = new long[0];
+
+    /**
+     * What to do with a message when the dispatch queue is full
+     */
+    public enum OverflowPolicy {
+        /** Drop the message being submitted */
+        DROP_NEWEST,
+        /** Drop the oldest queued message to make room for the new one */
+        DROP_OLDEST,
+        /** Send the message synchronously on the submitting thread */
+        SEND_SYNC;
+
+        public static OverflowPolicy fromString(String value) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+            return SEND_SYNC;
+        }
+    }
+
+    private DispatchQueue queue;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Batches are flushed from the shared timer or from whichever caller fills them, neither should wait for Zulip
+    private final MessageCoalescer coalescer = new MessageCoalescer(
+            (globalConfig, zulip, stream, topic, message, outboxIds) -> deliver(globalConfig, zulip, stream, topic,
+                    message, outboxIds, false));
+
+    private final DuplicateFilter duplicates = new DuplicateFilter();
+
+    public static ZulipDispatcher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sends stream message, either directly or through the dispatch queue depending on the global configuration
+     *
+     * @param globalConfig Zulip global configuration
+     * @param zulip        The Zulip sender
+     * @param stream       The destination stream
+     * @param topic        The destination topic
+     * @param message      The message content
+     * @return Future completed with the Zulip response, or with {@code null} if the message was not sent
+     */
+    public CompletableFuture<HttpResponse<String>> sendStreamMessage(DescriptorImpl globalConfig, Zulip zulip,
+            String stream, String topic, String message) {
+        return dispatch(globalConfig, zulip, stream, topic, message, true);
+    }
+
+    /**
+     * Sends stream message without ever blocking the calling thread. Unlike
+     * {@link #sendStreamMessage(DescriptorImpl, Zulip, String, String, String)}, the message is handed over to the
+     * non-blocking HTTP client when asynchronous mode is disabled, or when the dispatch queue is full and the overflow
+     * policy is to send synchronously.
+     *
+     * @param globalConfig Zulip global configuration
+     * @param zulip        The Zulip sender
+     * @param stream       The destination stream
+     * @param topic        The destination topic
+     * @param message      The message content
+     * @return Future completed with the Zulip response, or with {@code null} if the message was not sent
+     */
+    public CompletableFuture<HttpResponse<String>> sendStreamMessageAsync(DescriptorImpl globalConfig, Zulip zulip,
+            String stream, String topic, String message) {
+        return dispatch(globalConfig, zulip, stream, topic, message, false);
+    }
+
+    private CompletableFuture<HttpResponse<String>> dispatch(DescriptorImpl globalConfig, Zulip zulip,
+            String stream, String topic, String message, boolean blocking) {
+        if (globalConfig != null && globalConfig.getDuplicateWindow() > 0
+                && duplicates.isDuplicate(stream, topic, message, globalConfig.getDuplicateWindow() * 1000L)) {
+            LOGGER.log(Level.FINE, "Suppressing duplicate Zulip message to {0} > {1}", new Object[] { stream, topic });
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean coalesce = globalConfig != null && globalConfig.getCoalesceWindow() > 0;
+        boolean queued = globalConfig != null && globalConfig.isAsyncMode();
+        // Messages sent right away are recorded by Zulip itself
+        long outboxId = globalConfig != null && globalConfig.isOutboxEnabled() && (coalesce || queued)
+                ? zulip.recordStreamMessage(stream, topic, message) : 0;
+        if (coalesce) {
+            return coalescer.add(globalConfig, zulip, stream, topic, message, outboxId);
+        }
+        return deliver(globalConfig, zulip, stream, topic, message,
+                outboxId != 0 ? new long[] { outboxId } : NO_OUTBOX_IDS, blocking);
+    }
+
+    private CompletableFuture<HttpResponse<String>> deliver(DescriptorImpl globalConfig, Zulip zulip,
+            String stream, String topic, String message, long[] outboxIds, boolean blocking) {
+        if (globalConfig == null || !globalConfig.isAsyncMode()) {
+            if (blocking) {
+                return CompletableFuture.completedFuture(send(zulip, stream, topic, message, outboxIds));
+            }
+            return sendAsync(zulip, stream, topic, message, outboxIds);
+        }
+        Task task = new Task(zulip, stream, topic, message, outboxIds);
+        DispatchQueue queue = getQueue(globalConfig.getAsyncQueueCapacity(), globalConfig.getAsyncWorkers());
+        if (!queue.offer(task)) {
+            handleOverflow(queue, task, OverflowPolicy.fromString(globalConfig.getAsyncOverflowPolicy()), blocking);
+        }
+        return task.result;
+    }
+
+    /**
+     * @return Number of messages waiting in the dispatch queue
+     */
+    public synchronized int getQueueSize() {
+        return queue != null ? queue.tasks.size() : 0;
+    }
+
+    /**
+     * @return Number of coalesced batches waiting for their window to elapse
+     */
+    public int getPendingBatches() {
+        return coalescer.getPendingBatches();
+    }
+
+    /**
+     * @return Number of messages suppressed as duplicates
+     */
+    public long getSuppressedCount() {
+        return duplicates.getSuppressedCount();
+    }
+
+    /**
+     * @return Number of messages dropped because the dispatch queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static HttpResponse<String> send(Zulip zulip, String stream, String topic, String message,
+            long[] outboxIds) {
+        if (outboxIds.length > 0) {
+            return zulip.sendStreamMessage(stream, topic, message, outboxIds);
+        }
+        return zulip.sendStreamMessage(stream, topic, message);
+    }
+
+    private static CompletableFuture<HttpResponse<String>> sendAsync(Zulip zulip, String stream, String topic,
+            String message, long[] outboxIds) {
+        CompletableFuture<HttpResponse<String>> response = outboxIds.length > 0
+                ? zulip.sendStreamMessageAsync(stream, topic, message, outboxIds)
+                : zulip.sendStreamMessageAsync(stream, topic, message);
+        return response.exceptionally(e -> {
+            LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
+            return null;
+        });
+    }
+
+    private void handleOverflow(DispatchQueue queue, Task task, OverflowPolicy policy, boolean blocking) {
+        switch (policy) {
+            case DROP_OLDEST:
+                Task oldest = queue.tasks.poll();
+                if (oldest != null) {
+                    oldest.drop();
+                }
+                if (!queue.offer(task)) {
+                    task.drop();
+                }
+                return;
+            case DROP_NEWEST:
+                task.drop();
+                return;
+            case SEND_SYNC:
+            default:
+                if (blocking) {
+                    LOGGER.log(Level.FINE, "Zulip dispatch queue is full, sending message synchronously");
+                    task.runSync();
+                } else {
+                    LOGGER.log(Level.FINE, "Zulip dispatch queue is full, sending message directly");
+                    task.runAsync();
+                }
+        }
+    }
+
+    private synchronized DispatchQueue getQueue(int capacity, int maxInFlight) {
+        if (queue == null || queue.capacity != capacity || queue.maxInFlight != maxInFlight) {
+            // Already queued messages are still delivered from the old queue
+            LOGGER.log(Level.FINE, "Starting Zulip dispatcher with {0} requests in flight and queue capacity {1}",
+                    new Object[] { maxInFlight, capacity });
+            queue = new DispatchQueue(capacity, maxInFlight);
+        }
+        return queue;
+    }
+
+    /**
+     * Gives queued messages a chance to be delivered before Jenkins shuts down
+     */
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        DispatchQueue queue;
+        synchronized (INSTANCE) {
+            queue = INSTANCE.queue;
+        }
+        if (queue != null && !queue.awaitIdle(TimeUnit.SECONDS.toMillis(10))) {
+            // Those recorded in the outbox are sent on next start
+            LOGGER.log(Level.WARNING, "{0} Zulip messages were not sent before shutdown", queue.tasks.size());
+        }
+    }
+
+    /**
+     * Bounded queue of messages handed over to the non-blocking HTTP client, with a semaphore bounding the requests
+     * in flight. Whichever thread queues a message or completes a request sends the next ones, no thread waits for
+     * Zulip.
+     */
+    private static final class DispatchQueue {
+
+        private final int capacity;
+        private final int maxInFlight;
+        private final BlockingQueue<Task> tasks;
+        private final Semaphore inFlight;
+        // Number of drain requests, only the thread raising it from zero drains
+        private final AtomicInteger drainRequests = new AtomicInteger();
+
+        private DispatchQueue(int capacity, int maxInFlight) {
+            this.capacity = capacity;
+            this.maxInFlight = maxInFlight;
+            this.tasks = new ArrayBlockingQueue<>(capacity);
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+
+        private boolean offer(Task task) {
+            if (!tasks.offer(task)) {
+                return false;
+            }
+            drain();
+            return true;
+        }
+
+        private void drain() {
+            // Requests completing right away call back into drain, which must not recurse through the whole queue
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int requests = 1;
+            do {
+                while (inFlight.tryAcquire()) {
+                    Task task = tasks.poll();
+                    if (task == null) {
+                        inFlight.release();
+                        break;
+                    }
+                    task.runAsync().whenComplete((response, e) -> {
+                        inFlight.release();
+                        drain();
+                    });
+                }
+                requests = drainRequests.addAndGet(-requests);
+            } while (requests != 0);
+        }
+
+        private boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!tasks.isEmpty() || inFlight.availablePermits() < maxInFlight) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(100);
+            }
+            return true;
+        }
+    }
+
+    private final class Task {
+
+        private final Zulip zulip;
+        private final String stream;
+        private final String topic;
+        private final String message;
+        private final long[] outboxIds;
+        private final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+
+        private Task(Zulip zulip, String stream, String topic, String message, long[] outboxIds) {
+            this.zulip = zulip;
+            this.stream = stream;
+            this.topic = topic;
+            this.message = message;
+            this.outboxIds = outboxIds;
+        }
+
+        private void runSync() {
+            try {
+                result.complete(send(zulip, stream, topic, message, outboxIds));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
+                result.complete(null);
+            }
+        }
+
+        private CompletableFuture<HttpResponse<String>> runAsync() {
+            try {
+                sendAsync(zulip, stream, topic, message, outboxIds)
+                        .whenComplete((response, e) -> result.complete(response));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error sending Zulip message: ", e);
+                result.complete(null);
+            }
+            return result;
+        }
+
+        private void drop() {
+            dropped.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Zulip dispatch queue is full, dropping message to {0} > {1}",
+                    new Object[] { stream, topic });
+            for (long id : outboxIds) {
+                ZulipOutbox.get().complete(id);
+            }
+            result.complete(null);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package jenkins.plugins.zulip;
+
+import java.util.Collection;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+
+/**
+ * Status page of Zulip notifications under <i>Manage Jenkins</i>
+ */
+@Extension
+public class ZulipManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Zulip Status";
+    }
+
+    @Override
+    public String getDescription() {
+        return "State of the Zulip servers and of messages waiting to be sent.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "zulip";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return CircuitBreaker.getAll();
+    }
+
+    public Collection<RateLimiter> getRateLimiters() {
+        return RateLimiter.getAll().values();
+    }
+
+    public AuthorCache getAuthorCache() {
+        return AuthorCache.get();
+    }
+
+    public ZulipDispatcher getDispatcher() {
+        return ZulipDispatcher.get();
+    }
+
+    /**
+     * @return Number of messages in the outbox, or -1 if the outbox is disabled
+     */
+    public int getOutboxPendingCount() {
+        DescriptorImpl globalConfig = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        return globalConfig != null && globalConfig.isOutboxEnabled() ? ZulipOutbox.get().getPendingCount() : -1;
+    }
+
+}
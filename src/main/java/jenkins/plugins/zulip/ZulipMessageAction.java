@@ -0,0 +1,123 @@
+package jenkins.plugins.zulip;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.InvisibleAction;
+
+/**
+ * Remembers the Zulip message posted for a build, so that later notifications of the same build edit it instead of
+ * posting new messages. Edits are chained on the post and on each other, so that they reach Zulip in order without
+ * the build waiting for them.
+ */
+public class ZulipMessageAction extends InvisibleAction {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipMessageAction.class.getName());
+
+    private final String stream;
+    private final String topic;
+    private volatile long messageId;
+
+    // Completed with the message id once the last post or edit is done, guarded by this
+    private transient CompletableFuture<Long> last;
+    // Content of the last notification, guarded by this
+    private transient String content;
+
+    public ZulipMessageAction(String stream, String topic, long messageId) {
+        this.stream = stream;
+        this.topic = topic;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Creates action for message that is still being posted
+     *
+     * @param stream            The stream the message is posted to
+     * @param topic             The topic the message is posted to
+     * @param pendingMessageId  Future completed with the message id, or with 0 if posting failed
+     */
+    public ZulipMessageAction(String stream, String topic, CompletableFuture<Long> pendingMessageId) {
+        this(stream, topic, 0);
+        this.last = pendingMessageId.thenApply(id -> {
+            this.messageId = id;
+            return id;
+        });
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return The message id, 0 if not known (yet)
+     */
+    public long getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Edits the message once it has been posted and earlier edits are done, or posts it again if posting failed.
+     * Does not wait for Zulip.
+     *
+     * @param zulip   The Zulip sender
+     * @param message The new message content
+     * @return Future completed with the message id, 0 if there is none
+     */
+    public synchronized CompletableFuture<Long> send(Zulip zulip, String message) {
+        content = message;
+        return chain(zulip, message, true);
+    }
+
+    /**
+     * Edits the message to show progress of the build below the content of the last notification, once earlier
+     * edits are done. Does not wait for Zulip.
+     *
+     * @param zulip    The Zulip sender
+     * @param progress The progress line
+     * @return Future completed with the message id, null if the content of the message is not known, e.g. after
+     *         restart
+     */
+    public synchronized CompletableFuture<Long> sendProgress(Zulip zulip, String progress) {
+        if (content == null) {
+            return null;
+        }
+        return chain(zulip, content + "\n\n" + progress, false);
+    }
+
+    private CompletableFuture<Long> chain(Zulip zulip, String message, boolean post) {
+        CompletableFuture<Long> previous = last != null ? last : CompletableFuture.completedFuture(messageId);
+        // An edit that failed to even start leaves the message in place
+        last = previous.handle((id, error) -> id != null ? id : messageId).thenCompose(id -> {
+            if (id != 0) {
+                return zulip.updateMessageAsync(id, message).handle((response, error) -> id);
+            }
+            if (!post) {
+                return CompletableFuture.completedFuture(id);
+            }
+            return zulip.sendStreamMessageAsync(stream, topic, message).handle((response, error) -> {
+                long postedId = Zulip.getMessageId(response);
+                if (postedId != 0) {
+                    this.messageId = postedId;
+                } else {
+                    LOGGER.log(Level.FINE, "Zulip message of the build not posted", error);
+                }
+                return postedId;
+            });
+        });
+        return last;
+    }
+
+    /**
+     * Tests if the message was posted to given stream and topic
+     */
+    public boolean isFor(String stream, String topic) {
+        return Objects.equals(this.stream, stream) && Objects.equals(this.topic, topic);
+    }
+
+}
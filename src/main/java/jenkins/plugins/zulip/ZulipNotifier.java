@@ -1,14 +1,16 @@
 package jenkins.plugins.zulip;
 
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.model.Job;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import hudson.scm.ChangeLogSet;
+import hudson.model.User;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.test.AbstractTestResultAction;
@@ -19,8 +21,13 @@ import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static jenkins.plugins.zulip.ZulipUtil.displayItem;
 import static jenkins.plugins.zulip.ZulipUtil.displayObjectWithLink;
@@ -35,6 +42,20 @@ public class ZulipNotifier extends Publisher implements SimpleBuildStep {
     private String stream;
     private String topic;
     private String smartNotification;
+    private int smartNotificationInterval;
+    private int flakyChanges;
+    private int flakyWindow;
+    private boolean singleMessage;
+    private String template;
+    private int logExcerptLines;
+    private String logExcerptPattern;
+
+    /**
+     * Template producing the classic notification message
+     */
+    static final String DEFAULT_TEMPLATE = "${#fixedTopic}**Project: **${project} : ${/fixedTopic}"
+            + "**Build: **${build}: **${result}** ${icon}${#unstable} (${failCount} broken tests)${/unstable}"
+            + "${#failedTests}\n\n${failedTests}${/failedTests}${#changes}\n\n${changes}${/changes}${#log}\n\n${log}${/log}";
 
     @Extension
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
@@ -70,6 +91,90 @@ public class ZulipNotifier extends Publisher implements SimpleBuildStep {
         this.smartNotification = smartNotification;
     }
 
+    public int getSmartNotificationInterval() {
+        return smartNotificationInterval > 0 ? smartNotificationInterval : 5;
+    }
+
+    /**
+     * @param smartNotificationInterval Notify every this many failing builds in "still failing" mode
+     */
+    @DataBoundSetter
+    public void setSmartNotificationInterval(int smartNotificationInterval) {
+        this.smartNotificationInterval = smartNotificationInterval;
+    }
+
+    public int getFlakyChanges() {
+        return flakyChanges > 0 ? flakyChanges : 3;
+    }
+
+    /**
+     * @param flakyChanges Number of result changes that make the job flaky in "flaky" mode
+     */
+    @DataBoundSetter
+    public void setFlakyChanges(int flakyChanges) {
+        this.flakyChanges = flakyChanges;
+    }
+
+    public int getFlakyWindow() {
+        return flakyWindow > 0 ? Math.min(flakyWindow, NotificationStateIndex.HISTORY_SIZE) : 10;
+    }
+
+    /**
+     * @param flakyWindow Number of recent builds result changes are counted in for "flaky" mode
+     */
+    @DataBoundSetter
+    public void setFlakyWindow(int flakyWindow) {
+        this.flakyWindow = flakyWindow;
+    }
+
+    public boolean isSingleMessage() {
+        return singleMessage;
+    }
+
+    /**
+     * @param singleMessage Whether to post one message per build and edit it with later notifications
+     */
+    @DataBoundSetter
+    public void setSingleMessage(boolean singleMessage) {
+        this.singleMessage = singleMessage;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @param template Message template, the global template is used if not set
+     */
+    @DataBoundSetter
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
+    public int getLogExcerptLines() {
+        return logExcerptLines;
+    }
+
+    /**
+     * @param logExcerptLines Number of build log lines to include in failure notifications, 0 for none
+     */
+    @DataBoundSetter
+    public void setLogExcerptLines(int logExcerptLines) {
+        this.logExcerptLines = logExcerptLines;
+    }
+
+    public String getLogExcerptPattern() {
+        return logExcerptPattern;
+    }
+
+    /**
+     * @param logExcerptPattern Regular expression of the log lines to include, the last lines are included if not set
+     */
+    @DataBoundSetter
+    public void setLogExcerptPattern(String logExcerptPattern) {
+        this.logExcerptPattern = logExcerptPattern;
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
@@ -87,75 +192,117 @@ public class ZulipNotifier extends Publisher implements SimpleBuildStep {
     }
 
     private boolean publish(@Nonnull Run<?, ?> build, @Nonnull TaskListener listener) throws InterruptedException {
-        if (shouldPublish(build)) {
+        // Evaluated first, so that every build is recorded in the notification state index
+        boolean publish = shouldPublish(build);
+        ZulipMessageAction messageAction = singleMessage ? build.getAction(ZulipMessageAction.class) : null;
+        boolean statusBoard = ZulipUtil.isValueSet(DESCRIPTOR.getStatusBoardStream());
+        if (!publish && messageAction == null && !statusBoard) {
+            return true;
+        }
+        // Computed once per notification, actions may change it before the next one
+        EnvVars environment = ZulipUtil.getEnvironment(build, listener);
+        // Successful builds are only shown on the status board
+        boolean boardOnly = statusBoard && updateStatusBoard(build, environment)
+                && getBuildResult(build) == Result.SUCCESS;
+        // The message posted when the build started must get the result even if smart notification or the status
+        // board would skip it
+        if ((publish && !boardOnly) || messageAction != null) {
             String configuredTopic = ZulipUtil.getDefaultValue(topic, DESCRIPTOR.getTopic());
-            Result result = getBuildResult(build);
-            String changeString = "";
-            try {
-                changeString = getChangeSet(build);
-            } catch (Exception e) {
-                logger.log(Level.WARNING,
-                        "Exception while computing changes since last build:\n"
-                                + ExceptionUtils.getStackTrace(e));
-                changeString += "\nError determining changes since last build - please contact support@zulip.com.";
-            }
-            String resultString = result.toString();
-            String message = "";
-            // If we are sending to fixed topic, we will want to add project name into the message
-            if (ZulipUtil.isValueSet(configuredTopic)) {
-                message += "**Project: **"
-                        + displayItem(build.getParent(), DESCRIPTOR, DESCRIPTOR.isFullJobPathInMessage(), true)
-                        + " : ";
-            }
-            message += "**Build: **" + displayObjectWithLink(build, build.getUrl(), DESCRIPTOR);
-            message += ": ";
-            message += "**" + resultString + "**";
-            if (result == Result.SUCCESS) {
-                message += " :check_mark:";
-            }
-            else if (result == Result.UNSTABLE) {
-                message += " :warning:";
-                AbstractTestResultAction testResultAction = build.getAction(AbstractTestResultAction.class);
-                String failCount = testResultAction != null ? Integer.toString(testResultAction.getFailCount()) : "?";
-                message += " (" + failCount + " broken tests)";
+            String messageTemplate = ZulipUtil.getDefaultValue(template,
+                    ZulipUtil.getDefaultValue(DESCRIPTOR.getMessageTemplate(), DEFAULT_TEMPLATE));
+            String message = MessageTemplate.compile(messageTemplate)
+                    .render(new BuildVariables(this, build, configuredTopic));
+            String destinationStream = getDestinationStream(build, environment);
+            String destinationTopic = getDestinationTopic(build, environment, configuredTopic);
+            Zulip zulip = new Zulip(DESCRIPTOR.getUrl(), DESCRIPTOR.getEmail(), DESCRIPTOR.getApiKey());
+            if (singleMessage) {
+                sendSingleMessage(build, zulip, messageAction, destinationStream, destinationTopic, message);
             } else {
-                message += " :cross_mark:";
-            }
-            if (changeString.length() > 0) {
-                message += "\n\n";
-                message += changeString;
+                ZulipDispatcher.get().sendStreamMessage(DESCRIPTOR, zulip, destinationStream, destinationTopic, message);
             }
-            String destinationStream =
-                    ZulipUtil.expandVariables(build, listener, ZulipUtil.getDefaultValue(stream, DESCRIPTOR.getStream()));
-            String defaultTopic = displayItem(build.getParent(), DESCRIPTOR, DESCRIPTOR.isFullJobPathAsDefaultTopic(), false);
-            String destinationTopic = ZulipUtil.expandVariables(build, listener,
-                    ZulipUtil.getDefaultValue(configuredTopic, defaultTopic));
-            Zulip zulip = new Zulip(DESCRIPTOR.getUrl(), DESCRIPTOR.getEmail(), DESCRIPTOR.getApiKey());
-            zulip.sendStreamMessage(destinationStream, destinationTopic, message);
         }
         return true;
     }
 
-    private String getChangeSet(Run<?, ?> build) {
-        StringBuilder changeString = new StringBuilder();
-        RunChangeSetWrapper wrapper = new RunChangeSetWrapper(build);
-        if (!wrapper.hasChangeSetComputed()) {
-            changeString.append("Could not determine changes since last build.");
-        } else if (wrapper.hasChangeSet()) {
-            // If there seems to be a commit message at all, try to list all the changes.
-            changeString.append("Changes since last build:\n");
-            for (ChangeLogSet<? extends ChangeLogSet.Entry> changeLogSet : wrapper.getChangeSets()) {
-                for (ChangeLogSet.Entry e : changeLogSet) {
-                    String commitMsg = e.getMsg().trim();
-                    if (commitMsg.length() > 47) {
-                        commitMsg = commitMsg.substring(0, 46) + "...";
-                    }
-                    String author = e.getAuthor().getDisplayName();
-                    changeString.append("\n* `").append(author).append("` ").append(commitMsg);
-                }
-            }
+    /**
+     * Posts message announcing that the build started, which later notifications of the build will edit. Used in
+     * single message mode only.
+     *
+     * @param build    The started build
+     * @param listener The build listener
+     */
+    void notifyStarted(@Nonnull Run<?, ?> build, @Nonnull TaskListener listener) throws InterruptedException {
+        String configuredTopic = ZulipUtil.getDefaultValue(topic, DESCRIPTOR.getTopic());
+        String message = getBuildHeader(build, configuredTopic) + ": **STARTED** :hourglass:";
+        EnvVars environment = ZulipUtil.getEnvironment(build, listener);
+        String destinationStream = getDestinationStream(build, environment);
+        String destinationTopic = getDestinationTopic(build, environment, configuredTopic);
+        Zulip zulip = new Zulip(DESCRIPTOR.getUrl(), DESCRIPTOR.getEmail(), DESCRIPTOR.getApiKey());
+        // Don't hold up the build start, the id is awaited when the build completes
+        build.addAction(new ZulipMessageAction(destinationStream, destinationTopic,
+                zulip.sendStreamMessageAsync(destinationStream, destinationTopic, message)
+                        .thenApply(Zulip::getMessageId)
+                        .exceptionally(e -> 0L)));
+    }
+
+    /**
+     * Edits the message posted earlier for the build, or posts new one and remembers it for later edits. Does not
+     * wait for the message posted when the build started, the edit follows it.
+     */
+    private void sendSingleMessage(Run<?, ?> build, Zulip zulip, ZulipMessageAction messageAction, String stream,
+            String topic, String message) {
+        if (messageAction != null && messageAction.isFor(stream, topic)) {
+            messageAction.send(zulip, message);
+            return;
         }
-        return changeString.toString();
+        if (messageAction != null) {
+            build.removeAction(messageAction);
+        }
+        ZulipMessageAction posted = new ZulipMessageAction(stream, topic, 0);
+        build.addAction(posted);
+        posted.send(zulip, message);
+    }
+
+    /**
+     * Records the build result on the status board, if this notifier sends to the status board stream and topic
+     *
+     * @return true if the status board was updated
+     */
+    private boolean updateStatusBoard(Run<?, ?> build, EnvVars environment) {
+        String configuredTopic = ZulipUtil.getDefaultValue(topic, DESCRIPTOR.getTopic());
+        String destinationStream = getDestinationStream(build, environment);
+        String destinationTopic = getDestinationTopic(build, environment, configuredTopic);
+        if (!DESCRIPTOR.isStatusBoard(destinationStream, destinationTopic)) {
+            return false;
+        }
+        Job<?, ?> job = build.getParent();
+        String jobKey = job.getFullName() != null ? job.getFullName() : job.getDisplayName();
+        Zulip zulip = new Zulip(DESCRIPTOR.getUrl(), DESCRIPTOR.getEmail(), DESCRIPTOR.getApiKey());
+        StatusBoard.get(destinationStream, destinationTopic).update(zulip, DESCRIPTOR.getStatusBoardDebounce(), jobKey,
+                displayItem(job, DESCRIPTOR, DESCRIPTOR.isFullJobPathInMessage(), true), getBuildResult(build),
+                displayObjectWithLink(build, build.getUrl(), DESCRIPTOR));
+        return true;
+    }
+
+    private String getBuildHeader(Run<?, ?> build, String configuredTopic) {
+        String header = "";
+        // If we are sending to fixed topic, we will want to add project name into the message
+        if (ZulipUtil.isValueSet(configuredTopic)) {
+            header += "**Project: **"
+                    + displayItem(build.getParent(), DESCRIPTOR, DESCRIPTOR.isFullJobPathInMessage(), true)
+                    + " : ";
+        }
+        header += "**Build: **" + displayObjectWithLink(build, build.getUrl(), DESCRIPTOR);
+        return header;
+    }
+
+    private String getDestinationStream(Run<?, ?> build, EnvVars environment) {
+        return ZulipUtil.expandVariables(environment, ZulipUtil.getDefaultValue(stream, DESCRIPTOR.getStream()));
+    }
+
+    private String getDestinationTopic(Run<?, ?> build, EnvVars environment, String configuredTopic) {
+        String defaultTopic = displayItem(build.getParent(), DESCRIPTOR, DESCRIPTOR.isFullJobPathAsDefaultTopic(), false);
+        return ZulipUtil.expandVariables(environment, ZulipUtil.getDefaultValue(configuredTopic, defaultTopic));
     }
 
     /**
@@ -166,21 +313,40 @@ public class ZulipNotifier extends Publisher implements SimpleBuildStep {
      * <li>The current build did not succeed</li>
      * <li>The previous build failed and the current build succeeded.</li>
      * </ol>
+     * Jobs can select other modes, see {@link SmartNotification.Mode}. Recent results are taken from the
+     * {@link NotificationStateIndex}, where the result of the build is recorded first. Only builds up to this one
+     * count, so that a build completing after a newer one is not judged by it. The previous build is only loaded if
+     * the index does not know the job yet.
      *
      * @return true if build should be published
      */
     private boolean shouldPublish(Run<?, ?> build) {
-        if (SmartNotification.isSmartNotifyEnabled(smartNotification, DESCRIPTOR.isSmartNotify())) {
-            Run<?, ?> previousBuild = build.getPreviousBuild();
-            if (previousBuild == null ||
-                    getBuildResult(build) != Result.SUCCESS ||
-                    getBuildResult(previousBuild) != Result.SUCCESS) {
-                return true;
-            }
-        } else {
+        String job = build.getParent().getFullName();
+        NotificationStateIndex index = job != null ? NotificationStateIndex.get() : null;
+        Result result = getBuildResult(build);
+        Result indexedPrevious = index != null ? index.getPreviousResult(job, build.getNumber()) : null;
+        if (index != null) {
+            index.record(job, build.getNumber(), result);
+        }
+        SmartNotification.Mode mode = SmartNotification.getExtendedMode(smartNotification);
+        if (mode == null) {
+            mode = SmartNotification.isSmartNotifyEnabled(smartNotification, DESCRIPTOR.isSmartNotify())
+                    ? SmartNotification.Mode.ENABLED : SmartNotification.Mode.DISABLED;
+        }
+        if (mode == SmartNotification.Mode.DISABLED) {
             return true;
         }
-        return false;
+        NotificationStateIndex.History history;
+        if (indexedPrevious != null) {
+            history = index.getHistory(job, build.getNumber());
+        } else {
+            // Job not known yet, only the previous build can tell
+            Run<?, ?> previousBuild = build.getPreviousBuild();
+            history = NotificationStateIndex.History.of(result,
+                    previousBuild != null ? getBuildResult(previousBuild) : null);
+        }
+        return SmartNotification.shouldNotify(mode, history, getSmartNotificationInterval(), getFlakyChanges(),
+                getFlakyWindow());
     }
 
     /**
@@ -195,4 +361,145 @@ public class ZulipNotifier extends Publisher implements SimpleBuildStep {
         return build.getResult() != null ? build.getResult() : Result.SUCCESS;
     }
 
+    /**
+     * Template variables of a build, each computed on first use only
+     */
+    private static final class BuildVariables implements MessageTemplate.Variables {
+
+        private final ZulipNotifier notifier;
+        private final Run<?, ?> build;
+        private final String configuredTopic;
+        private final Map<String, Object> values = new HashMap<>();
+
+        private BuildVariables(ZulipNotifier notifier, Run<?, ?> build, String configuredTopic) {
+            this.notifier = notifier;
+            this.build = build;
+            this.configuredTopic = configuredTopic;
+        }
+
+        @Override
+        public Object get(String name) {
+            if (values.containsKey(name)) {
+                return values.get(name);
+            }
+            Object value = compute(name);
+            values.put(name, value);
+            return value;
+        }
+
+        private Object compute(String name) {
+            Result result = getBuildResult(build);
+            switch (name) {
+                case "fixedTopic":
+                    return ZulipUtil.isValueSet(configuredTopic);
+                case "project":
+                    return displayItem(build.getParent(), DESCRIPTOR, DESCRIPTOR.isFullJobPathInMessage(), true);
+                case "build":
+                    return displayObjectWithLink(build, build.getUrl(), DESCRIPTOR);
+                case "url":
+                    return ZulipUtil.getDefaultValue(ZulipUtil.getJenkinsUrl(DESCRIPTOR), "") + build.getUrl();
+                case "result":
+                    return result.toString();
+                case "icon":
+                    return result == Result.SUCCESS ? ":check_mark:"
+                            : result == Result.UNSTABLE ? ":warning:" : ":cross_mark:";
+                case "success":
+                    return result == Result.SUCCESS;
+                case "unstable":
+                    return result == Result.UNSTABLE;
+                case "failure":
+                    return result != Result.SUCCESS && result != Result.UNSTABLE;
+                case "duration":
+                    return build.getDurationString();
+                case "changes":
+                    return getChanges();
+                case "culprits":
+                    return getCulprits();
+                case "failedTests":
+                    FailedTestSummaryAction failedTests = getFailedTestSummary(result);
+                    return failedTests != null ? failedTests.render(DESCRIPTOR.getFailedTestsMax()) : "";
+                case "newFailCount":
+                case "existingFailCount":
+                    FailedTestSummaryAction summary = getFailedTestSummary(result);
+                    int count = summary == null ? -1
+                            : "newFailCount".equals(name) ? summary.getNewCount() : summary.getExistingCount();
+                    return count >= 0 ? (Object) count : "?";
+                case "log":
+                    return result != Result.SUCCESS && result != Result.UNSTABLE ? getLogExcerpt() : "";
+                case "failCount":
+                case "totalCount":
+                case "skipCount":
+                    AbstractTestResultAction<?> tests = build.getAction(AbstractTestResultAction.class);
+                    if (tests == null) {
+                        return "?";
+                    }
+                    return "failCount".equals(name) ? tests.getFailCount()
+                            : "totalCount".equals(name) ? tests.getTotalCount() : tests.getSkipCount();
+                default:
+                    return null;
+            }
+        }
+
+        private String getChanges() {
+            try {
+                return new ChangeLogRenderer(DESCRIPTOR.getChangeLogMaxEntries(), DESCRIPTOR.getChangeLogMaxLength(),
+                        DESCRIPTOR.isChangeLogGroupByAuthor(), DESCRIPTOR.isChangeLogMentions()).render(build);
+            } catch (Exception e) {
+                logger.log(Level.WARNING,
+                        "Exception while computing changes since last build:\n"
+                                + ExceptionUtils.getStackTrace(e));
+                return "\nError determining changes since last build - please contact support@zulip.com.";
+            }
+        }
+
+        private FailedTestSummaryAction getFailedTestSummary(Result result) {
+            if (result == Result.SUCCESS || DESCRIPTOR.getFailedTestsMax() <= 0) {
+                return null;
+            }
+            return FailedTestSummaryAction.of(build, DESCRIPTOR.getFailedTestsMax());
+        }
+
+        private String getLogExcerpt() {
+            if (notifier.getLogExcerptLines() <= 0) {
+                return "";
+            }
+            Pattern pattern = null;
+            if (ZulipUtil.isValueSet(notifier.getLogExcerptPattern())) {
+                try {
+                    pattern = Pattern.compile(notifier.getLogExcerptPattern());
+                } catch (PatternSyntaxException e) {
+                    logger.log(Level.WARNING, "Invalid log excerpt pattern, using last lines instead: {0}",
+                            e.getMessage());
+                }
+            }
+            try {
+                List<String> lines = new LogExcerpt(notifier.getLogExcerptLines(), pattern,
+                        DESCRIPTOR.getLogExcerptBudget() * 1024L).read(build.getLogFile(), build.getCharset());
+                if (lines.isEmpty()) {
+                    return "";
+                }
+                StringBuilder excerpt = new StringBuilder("```text\n");
+                for (String line : lines) {
+                    // A fence in the log would end the code block early
+                    excerpt.append(line.replace("```", "'''")).append('\n');
+                }
+                return excerpt.append("```").toString();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to read log excerpt of " + build, e);
+                return "";
+            }
+        }
+
+        private String getCulprits() {
+            StringBuilder culprits = new StringBuilder();
+            for (User user : new RunChangeSetWrapper(build).getCulprits()) {
+                if (culprits.length() > 0) {
+                    culprits.append(", ");
+                }
+                culprits.append(user.getDisplayName());
+            }
+            return culprits.toString();
+        }
+    }
+
 }
@@ -0,0 +1,369 @@
+package jenkins.plugins.zulip;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * Durable journal of messages that were not confirmed by Zulip yet.<br/>
+ * Every outgoing request is recorded before it is sent and marked complete once Zulip responded. Requests still
+ * pending when Jenkins stops (or gives up retrying) are sent again on the next startup.<br/>
+ * The journal is a sequence of append-only segment files under {@code $JENKINS_HOME/zulip/outbox}. Records are
+ * written and synced in batches on a background thread, so recording adds no disk latency to the build. When a
+ * segment grows over the size limit, a new one is started with only the still pending entries and older segments
+ * are deleted.
+ */
+public class ZulipOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipOutbox.class.getName());
+
+    private static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final long FLUSH_DELAY_MILLIS = 50;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static ZulipOutbox instance;
+
+    private final File directory;
+    private final long segmentSize;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Entry> pending = new ConcurrentSkipListMap<>();
+    // Ids of pending entries currently being sent, so that replay doesn't send them twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Guarded by this
+    private final List<String> writeQueue = new ArrayList<>();
+    private boolean flushScheduled;
+
+    private final Object writeLock = new Object();
+    // Guarded by writeLock
+    private FileChannel channel;
+    private long segment;
+
+    /**
+     * Pending Zulip request
+     */
+    public static final class Entry {
+
+        private final long id;
+        private final String method;
+        private final Map<String, String> parameters;
+
+        private Entry(long id, String method, Map<String, String> parameters) {
+            this.id = id;
+            this.method = method;
+            this.parameters = parameters;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public Map<String, String> getParameters() {
+            return Collections.unmodifiableMap(parameters);
+        }
+    }
+
+    ZulipOutbox(File directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Gets the outbox of this Jenkins instance, loading its journal on first use
+     *
+     * @return The outbox
+     */
+    public static synchronized ZulipOutbox get() {
+        if (instance == null) {
+            ZulipOutbox outbox = new ZulipOutbox(new File(Jenkins.get().getRootDir(), "zulip/outbox"),
+                    DEFAULT_SEGMENT_SIZE);
+            outbox.load();
+            instance = outbox;
+        }
+        return instance;
+    }
+
+    /**
+     * Sends requests left pending by the previous run of Jenkins
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayOnStartup() {
+        DescriptorImpl globalConfig = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+        if (globalConfig != null && globalConfig.isOutboxEnabled()) {
+            get().replay(globalConfig);
+        }
+    }
+
+    /**
+     * Sends all pending requests that are not being sent already again
+     *
+     * @param globalConfig Zulip global configuration
+     */
+    public void replay(DescriptorImpl globalConfig) {
+        Collection<Entry> entries = getPending();
+        if (entries.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "Sending {0} pending Zulip messages from outbox", entries.size());
+        Zulip zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
+        for (Entry entry : entries) {
+            if (inFlight.add(entry.getId())) {
+                zulip.resend(entry);
+            }
+        }
+    }
+
+    /**
+     * Records request about to be sent. Zulip credentials are not stored.
+     *
+     * @param method     The API method
+     * @param parameters The request parameters
+     * @return Id of the outbox entry
+     */
+    public long record(String method, Map<String, String> parameters) {
+        long id = nextId.getAndIncrement();
+        Map<String, String> stored = new LinkedHashMap<>(parameters);
+        stored.remove("api-key");
+        stored.remove("email");
+        Entry entry = new Entry(id, method, stored);
+        pending.put(id, entry);
+        inFlight.add(id);
+        append(pendingRecord(entry));
+        return id;
+    }
+
+    /**
+     * Marks request that failed as no longer being sent, keeping it pending for replay
+     *
+     * @param id Id of the outbox entry
+     */
+    public void release(long id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * Marks request as complete so that it won't be sent again
+     *
+     * @param id Id of the outbox entry
+     */
+    public void complete(long id) {
+        inFlight.remove(id);
+        if (pending.remove(id) != null) {
+            append("C\t" + id);
+        }
+    }
+
+    /**
+     * @return Snapshot of pending entries, oldest first
+     */
+    public Collection<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void append(String record) {
+        synchronized (this) {
+            writeQueue.add(record);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        // Group commit: records arriving within the delay share one write and fsync
+        Timer.get().schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes and syncs queued records
+     */
+    void flush() {
+        synchronized (writeLock) {
+            // Taken under the write lock, so that concurrent flushes can't reorder records
+            List<String> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(writeQueue);
+                writeQueue.clear();
+                flushScheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                if (channel == null) {
+                    rotate();
+                }
+                StringBuilder records = new StringBuilder();
+                for (String record : batch) {
+                    records.append(record).append('\n');
+                }
+                write(records);
+                if (channel.size() > segmentSize) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write Zulip outbox in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment holding pending entries only and deletes the older ones
+     */
+    private void rotate() throws IOException {
+        Files.createDirectories(directory.toPath());
+        File[] oldSegments = listSegments();
+        if (channel != null) {
+            channel.close();
+        }
+        segment++;
+        File segmentFile = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        StringBuilder records = new StringBuilder();
+        for (Entry entry : pending.values()) {
+            records.append(pendingRecord(entry)).append('\n');
+        }
+        write(records);
+        for (File oldSegment : oldSegments) {
+            if (!oldSegment.equals(segmentFile) && !oldSegment.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete Zulip outbox segment {0}", oldSegment);
+            }
+        }
+    }
+
+    private void write(CharSequence records) throws IOException {
+        if (records.length() == 0) {
+            return;
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(records.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Loads pending entries from the journal
+     */
+    void load() {
+        for (File segmentFile : listSegments()) {
+            segment = Math.max(segment, getSegmentNumber(segmentFile));
+            try (BufferedReader reader = Files.newBufferedReader(segmentFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parse(line);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read Zulip outbox segment " + segmentFile, e);
+            }
+        }
+        if (!pending.isEmpty()) {
+            LOGGER.log(Level.FINE, "Loaded {0} pending Zulip messages from outbox", pending.size());
+        }
+    }
+
+    private void parse(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            long id = Long.parseLong(fields[1]);
+            nextId.accumulateAndGet(id + 1, Math::max);
+            if ("P".equals(fields[0]) && fields.length == 4) {
+                pending.put(id, new Entry(id, fields[2], decode(fields[3])));
+            } else if ("C".equals(fields[0])) {
+                pending.remove(id);
+            }
+        } catch (RuntimeException e) {
+            // Most likely the last record, cut short by a crash
+            LOGGER.log(Level.FINE, "Skipping malformed Zulip outbox record: {0}", line);
+        }
+    }
+
+    private File[] listSegments() {
+        File[] segments = directory.listFiles(
+                (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long getSegmentNumber(File segmentFile) {
+        String name = segmentFile.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String pendingRecord(Entry entry) {
+        return "P\t" + entry.id + "\t" + entry.method + "\t" + encode(entry.parameters);
+    }
+
+    private static String encode(Map<String, String> parameters) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (encoded.length() > 0) {
+                encoded.append('&');
+            }
+            encoded.append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8)).append('=');
+            if (parameter.getValue() != null) {
+                encoded.append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static Map<String, String> decode(String encoded) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (encoded.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : encoded.split("&")) {
+            int separator = parameter.indexOf('=');
+            parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+}
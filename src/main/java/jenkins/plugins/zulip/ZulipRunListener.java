@@ -0,0 +1,38 @@
+package jenkins.plugins.zulip;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Posts the build started message of {@link ZulipNotifier}s in single message mode, which the notifier edits once
+ * the build completes. Pipelines have no notifier configured up front, there the first notification posts the
+ * message and later ones edit it.
+ */
+@Extension
+public class ZulipRunListener extends RunListener<AbstractBuild<?, ?>> {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipRunListener.class.getName());
+
+    @Override
+    public void onStarted(AbstractBuild<?, ?> build, @Nonnull TaskListener listener) {
+        ZulipNotifier notifier = build.getProject().getPublishersList().get(ZulipNotifier.class);
+        if (notifier == null || !notifier.isSingleMessage()) {
+            return;
+        }
+        try {
+            notifier.notifyStarted(build, listener);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to post Zulip build started message", e);
+        }
+    }
+
+}
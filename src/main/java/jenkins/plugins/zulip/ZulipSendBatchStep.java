@@ -0,0 +1,281 @@
+package jenkins.plugins.zulip;
+
+import java.io.Serializable;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import static jenkins.plugins.zulip.ZulipUtil.displayItem;
+
+/**
+ * Sends many messages to Zulip streams in one Pipeline step.<br/>
+ * Configuration and environment are resolved once for the whole batch, and the messages are dispatched concurrently
+ * through one Zulip client, at most {@link #getParallelism()} at a time. The step returns map of entry index to
+ * {@link Status} name.
+ */
+public class ZulipSendBatchStep extends Step implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * Outcome of a batch entry
+     */
+    public enum Status {
+        /** Zulip accepted the message */
+        SENT,
+        /** Zulip rejected the message */
+        FAILED,
+        /** The message was not sent, e.g. dropped, suppressed as duplicate or Zulip could not be reached */
+        NOT_SENT
+    }
+
+    private final List<Entry> messages;
+    private int parallelism;
+
+    @DataBoundConstructor
+    public ZulipSendBatchStep(List<Entry> messages) {
+        this.messages = messages != null ? new ArrayList<>(messages) : Collections.emptyList();
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    public List<Entry> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : DEFAULT_PARALLELISM;
+    }
+
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Single message of the batch, with the same options as {@link ZulipSendPipelineStep}
+     */
+    public static class Entry extends AbstractDescribableImpl<Entry> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String stream;
+        private String topic;
+        private String message;
+
+        @DataBoundConstructor
+        public Entry() {
+        }
+
+        public String getStream() {
+            return stream;
+        }
+
+        @DataBoundSetter
+        public void setStream(String stream) {
+            this.stream = stream;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        @DataBoundSetter
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @DataBoundSetter
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        @Extension
+        public static class DescriptorImpl extends Descriptor<Entry> {
+
+            @Nonnull
+            @Override
+            public String getDisplayName() {
+                return "Zulip Message";
+            }
+        }
+    }
+
+    /**
+     * Keeps up to {@link #getParallelism()} messages in flight and completes the step when all of them are done
+     */
+    public static class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Logger logger = Logger.getLogger(Execution.class.getName());
+
+        private final ZulipSendBatchStep step;
+
+        private transient jenkins.plugins.zulip.DescriptorImpl globalConfig;
+        private transient Zulip zulip;
+        private transient String[][] resolved;
+        private transient Status[] statuses;
+        private transient int next;
+        private transient int inFlight;
+        private transient int done;
+        // Guards the send loop against recursion when messages complete on the sending thread
+        private transient AtomicInteger pumping;
+
+        Execution(ZulipSendBatchStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+            globalConfig = Jenkins.get().getDescriptorByType(jenkins.plugins.zulip.DescriptorImpl.class);
+            zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
+            EnvVars environment = context.get(EnvVars.class);
+            if (environment == null) {
+                environment = ZulipUtil.getEnvironment(run, listener);
+            }
+            String defaultStream = globalConfig.getStream();
+            String defaultTopic = ZulipUtil.getDefaultValue(globalConfig.getTopic(),
+                    displayItem(run.getParent(), globalConfig, globalConfig.isFullJobPathAsDefaultTopic(), false));
+            List<Entry> messages = step.getMessages();
+            resolved = new String[messages.size()][];
+            for (int i = 0; i < resolved.length; i++) {
+                Entry entry = messages.get(i);
+                resolved[i] = new String[] {
+                        environment.expand(ZulipUtil.getDefaultValue(entry.getStream(), defaultStream)),
+                        environment.expand(ZulipUtil.getDefaultValue(entry.getTopic(), defaultTopic)),
+                        environment.expand(entry.getMessage()) };
+            }
+            statuses = new Status[resolved.length];
+            pumping = new AtomicInteger();
+            if (resolved.length == 0) {
+                context.onSuccess(Collections.emptyMap());
+                return true;
+            }
+            pump();
+            return false;
+        }
+
+        private void pump() {
+            if (pumping.getAndIncrement() != 0) {
+                // The loop running further up the stack picks up the free slot
+                return;
+            }
+            do {
+                while (true) {
+                    int index;
+                    synchronized (this) {
+                        if (inFlight >= step.getParallelism() || next >= resolved.length) {
+                            break;
+                        }
+                        index = next++;
+                        inFlight++;
+                    }
+                    send(index);
+                }
+            } while (pumping.decrementAndGet() != 0);
+        }
+
+        private void send(int index) {
+            String[] message = resolved[index];
+            CompletableFuture<HttpResponse<String>> result;
+            try {
+                result = ZulipDispatcher.get().sendStreamMessageAsync(globalConfig, zulip, message[0], message[1],
+                        message[2]);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Error sending Zulip message: ", e);
+                result = CompletableFuture.completedFuture(null);
+            }
+            result.whenComplete((response, error) -> completed(index, response));
+        }
+
+        private void completed(int index, HttpResponse<String> response) {
+            boolean last;
+            synchronized (this) {
+                statuses[index] = response == null ? Status.NOT_SENT
+                        : response.statusCode() == 200 ? Status.SENT : Status.FAILED;
+                inFlight--;
+                last = ++done == resolved.length;
+            }
+            if (last) {
+                Map<Integer, String> result = new LinkedHashMap<>();
+                for (int i = 0; i < statuses.length; i++) {
+                    result.put(i, statuses[i].name());
+                }
+                getContext().onSuccess(result);
+            } else {
+                pump();
+            }
+        }
+
+        @Override
+        public void onResume() {
+            // The response callbacks did not survive the restart, messages still pending are resent by the outbox
+            logger.log(Level.FINE, "Completing zulipSendBatch step interrupted by restart");
+            getContext().onSuccess(Collections.emptyMap());
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "zulipSendBatch";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Zulip Send Batch";
+        }
+
+        @Override
+        public String getHelpFile() {
+            return "/plugin/zulip/help-sendBatch.html";
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package jenkins.plugins.zulip;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import static jenkins.plugins.zulip.ZulipUtil.displayItem;
+
+/**
+ * Pipeline variant of {@link ZulipSendStep}, sending arbitrary message to Zulip stream without occupying an executor
+ * thread or the CPS VM thread while waiting for Zulip.<br/>
+ * The step completes once Zulip responds, or immediately in fire and forget mode.
+ */
+public class ZulipSendPipelineStep extends Step implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String stream;
+    private String topic;
+    private String message;
+    private boolean fireAndForget;
+
+    @DataBoundConstructor
+    public ZulipSendPipelineStep() {
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    @DataBoundSetter
+    public void setStream(String stream) {
+        this.stream = stream;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    @DataBoundSetter
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @DataBoundSetter
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public boolean isFireAndForget() {
+        return fireAndForget;
+    }
+
+    @DataBoundSetter
+    public void setFireAndForget(boolean fireAndForget) {
+        this.fireAndForget = fireAndForget;
+    }
+
+    /**
+     * Hands the message over to {@link ZulipDispatcher} and completes the step from the response callback. The
+     * message is prepared and handed over in the background, as it may need to read the environment and record the
+     * message on disk, which must not hold up the CPS VM thread.
+     */
+    public static class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Logger logger = Logger.getLogger(Execution.class.getName());
+
+        // Runs the work of the step off the CPS VM thread, replaced by tests
+        static Executor executor = command -> Timer.get().execute(command);
+
+        private final ZulipSendPipelineStep step;
+
+        // Set once the step was interrupted, e.g. by aborting the build
+        private transient volatile boolean stopped;
+
+        Execution(ZulipSendPipelineStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+            // Prefer the environment of the step, which includes variables set by enclosing withEnv or node blocks
+            EnvVars stepEnvironment = context.get(EnvVars.class);
+            jenkins.plugins.zulip.DescriptorImpl globalConfig = Jenkins.get()
+                    .getDescriptorByType(jenkins.plugins.zulip.DescriptorImpl.class);
+            Zulip zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
+            executor.execute(() -> {
+                if (stopped) {
+                    return;
+                }
+                try {
+                    send(run, listener, stepEnvironment, globalConfig, zulip);
+                } catch (RuntimeException e) {
+                    // Like the build step, failing to notify does not fail the build
+                    logger.log(Level.WARNING, "Failed to send Zulip message", e);
+                    if (!step.isFireAndForget() && !stopped) {
+                        context.onSuccess(null);
+                    }
+                }
+            });
+            if (step.isFireAndForget()) {
+                context.onSuccess(null);
+                return true;
+            }
+            return false;
+        }
+
+        private void send(Run<?, ?> run, TaskListener listener, EnvVars stepEnvironment,
+                jenkins.plugins.zulip.DescriptorImpl globalConfig, Zulip zulip) {
+            StepContext context = getContext();
+            EnvVars environment = stepEnvironment != null ? stepEnvironment : ZulipUtil.getEnvironment(run, listener);
+            String stream = environment.expand(ZulipUtil.getDefaultValue(step.getStream(), globalConfig.getStream()));
+            String defaultTopic = displayItem(run.getParent(), globalConfig,
+                    globalConfig.isFullJobPathAsDefaultTopic(), false);
+            String topic = environment.expand(ZulipUtil.getDefaultValue(
+                    ZulipUtil.getDefaultValue(step.getTopic(), globalConfig.getTopic()), defaultTopic));
+            String message = environment.expand(step.getMessage());
+            ZulipDispatcher.get().sendStreamMessageAsync(globalConfig, zulip, stream, topic, message)
+                    .whenComplete((response, error) -> {
+                        // A late response of stopped step is of no interest anymore
+                        if (step.isFireAndForget() || stopped) {
+                            return;
+                        }
+                        if (response == null || response.statusCode() != 200) {
+                            // Like the build step, failing to notify does not fail the build
+                            listener.getLogger().println("Zulip message to " + stream + " > " + topic
+                                    + " was not sent" + (response != null ? ", status " + response.statusCode() : ""));
+                        }
+                        context.onSuccess(null);
+                    });
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            // The message may still be delivered, but the step does not wait for it
+            stopped = true;
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            // The response callback did not survive the restart, messages still pending are resent by the outbox
+            logger.log(Level.FINE, "Completing zulipSend step interrupted by restart");
+            getContext().onSuccess(null);
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "zulipSend";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Zulip Send";
+        }
+
+        @Override
+        public String getHelpFile() {
+            return "/plugin/zulip/help-send.html";
+        }
+    }
+
+}
@@ -5,6 +5,7 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
@@ -15,14 +16,13 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
-import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import static jenkins.plugins.zulip.ZulipUtil.displayItem;
 
 /**
- * Sends arbitrary message to Zulip stream
+ * Sends arbitrary message to Zulip stream from freestyle jobs. Pipelines use {@link ZulipSendPipelineStep}.
  */
 public class ZulipSendStep extends Builder implements SimpleBuildStep {
 
@@ -43,15 +43,16 @@ public class ZulipSendStep extends Builder implements SimpleBuildStep {
         jenkins.plugins.zulip.DescriptorImpl globalConfig = Jenkins.get()
                 .getDescriptorByType(jenkins.plugins.zulip.DescriptorImpl.class);
         Zulip zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
-        String stream = ZulipUtil.expandVariables(run, listener,
+        EnvVars environment = ZulipUtil.getEnvironment(run, listener);
+        String stream = ZulipUtil.expandVariables(environment,
                 ZulipUtil.getDefaultValue(getStream(), globalConfig.getStream()));
         String defaultTopic = displayItem(run.getParent(), globalConfig, globalConfig.isFullJobPathAsDefaultTopic(),
                 false);
-        String topic = ZulipUtil.expandVariables(run, listener,
+        String topic = ZulipUtil.expandVariables(environment,
                 ZulipUtil.getDefaultValue(ZulipUtil.getDefaultValue(getTopic(), globalConfig.getTopic()),
                         defaultTopic));
-        String message = ZulipUtil.expandVariables(run, listener, getMessage());
-        zulip.sendStreamMessage(stream, topic, message);
+        String message = ZulipUtil.expandVariables(environment, getMessage());
+        ZulipDispatcher.get().sendStreamMessage(globalConfig, zulip, stream, topic, message);
     }
 
     public String getStream() {
@@ -81,7 +82,7 @@ public class ZulipSendStep extends Builder implements SimpleBuildStep {
         this.message = message;
     }
 
-    @Symbol("zulipSend")
+    // No symbol, zulipSend in Pipeline is ZulipSendPipelineStep
     @Extension
     public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
 
@@ -0,0 +1,56 @@
+package jenkins.plugins.zulip;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.actions.BodyInvocationAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+
+/**
+ * Edits the message of pipelines notifying in single message mode when a stage starts, showing the stage below the
+ * last notification. Pipelines that did not notify yet have no message to edit.
+ */
+@Extension
+public class ZulipStageListener implements GraphListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ZulipStageListener.class.getName());
+
+    @Override
+    public void onNewHead(FlowNode node) {
+        // The stage body starts once the stage step got its label
+        List<FlowNode> parents = node.getParents();
+        if (node.getAction(BodyInvocationAction.class) == null || parents.size() != 1) {
+            return;
+        }
+        FlowNode stage = parents.get(0);
+        LabelAction label = stage.getAction(LabelAction.class);
+        if (!"stage".equals(stage.getDisplayFunctionName()) || label == null) {
+            return;
+        }
+        Queue.Executable executable;
+        try {
+            executable = node.getExecution().getOwner().getExecutable();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Build of pipeline stage not available", e);
+            return;
+        }
+        if (!(executable instanceof Run)) {
+            return;
+        }
+        ZulipMessageAction messageAction = ((Run<?, ?>) executable).getAction(ZulipMessageAction.class);
+        if (messageAction == null) {
+            return;
+        }
+        DescriptorImpl globalConfig = ZulipNotifier.DESCRIPTOR;
+        Zulip zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
+        messageAction.sendProgress(zulip, ":hourglass: Stage **" + label.getDisplayName() + "** running");
+    }
+
+}
@@ -0,0 +1,152 @@
+package jenkins.plugins.zulip;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import static jenkins.plugins.zulip.ZulipUtil.displayItem;
+
+/**
+ * Uploads a workspace file to Zulip and optionally sends message linking to it.<br/>
+ * The upload runs on the agent holding the workspace, see {@link ZulipUploader}. The step returns URI of the
+ * uploaded file, relative to the Zulip server, so it can be embedded in messages.
+ */
+public class ZulipUploadStep extends Step implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String file;
+    private String stream;
+    private String topic;
+    private String message;
+
+    @DataBoundConstructor
+    public ZulipUploadStep(String file) {
+        this.file = file;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    @DataBoundSetter
+    public void setStream(String stream) {
+        this.stream = stream;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    @DataBoundSetter
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @DataBoundSetter
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Waits for the agent to finish the upload on a thread of its own, not blocking the Pipeline
+     */
+    public static class Execution extends SynchronousNonBlockingStepExecution<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ZulipUploadStep step;
+
+        Execution(ZulipUploadStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected String run() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+            FilePath workspace = context.get(FilePath.class);
+            jenkins.plugins.zulip.DescriptorImpl globalConfig = Jenkins.get()
+                    .getDescriptorByType(jenkins.plugins.zulip.DescriptorImpl.class);
+            Zulip zulip = new Zulip(globalConfig.getUrl(), globalConfig.getEmail(), globalConfig.getApiKey());
+            EnvVars environment = context.get(EnvVars.class);
+            if (environment == null) {
+                environment = ZulipUtil.getEnvironment(run, listener);
+            }
+            FilePath source = workspace.child(environment.expand(step.getFile()));
+            if (!source.exists()) {
+                throw new IOException("Cannot upload " + source.getRemote() + " to Zulip, it does not exist");
+            }
+            String uri = source.act(new ZulipUploader(zulip));
+            listener.getLogger().println("Uploaded " + source.getName() + " to Zulip: " + uri);
+            if (step.getMessage() != null) {
+                String stream = environment.expand(ZulipUtil.getDefaultValue(step.getStream(),
+                        globalConfig.getStream()));
+                String defaultTopic = displayItem(run.getParent(), globalConfig,
+                        globalConfig.isFullJobPathAsDefaultTopic(), false);
+                String topic = environment.expand(ZulipUtil.getDefaultValue(
+                        ZulipUtil.getDefaultValue(step.getTopic(), globalConfig.getTopic()), defaultTopic));
+                String message = environment.expand(step.getMessage()) + "\n[" + source.getName() + "](" + uri + ")";
+                ZulipDispatcher.get().sendStreamMessage(globalConfig, zulip, stream, topic, message);
+            }
+            return uri;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class, FilePath.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "zulipUpload";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Zulip Upload";
+        }
+
+        @Override
+        public String getHelpFile() {
+            return "/plugin/zulip/help-upload.html";
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import hudson.ProxyConfiguration;
+import hudson.remoting.VirtualChannel;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Uploads a file to Zulip {@code user_uploads} straight from the machine the file is on.<br/>
+ * Runs through {@link hudson.FilePath#act(hudson.FilePath.FileCallable)}, so that the file content never passes
+ * through the controller, only the resulting URI does. Zulip only accepts the bot credentials themselves, so the
+ * Basic authorization is sent to the agent; see the step help.
+ */
+public class ZulipUploader extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String endpoint;
+    private final String authorization;
+    private final int connectTimeout;
+    // The Jenkins proxy resolved for the Zulip server, the agent has no access to the Jenkins configuration
+    private String proxyHost;
+    private int proxyPort;
+    private String proxyUserName;
+    private String proxyPassword;
+
+    /**
+     * @param zulip The Zulip server and bot account to upload with
+     */
+    public ZulipUploader(Zulip zulip) {
+        URI uri = zulip.getApiEndpoint("user_uploads");
+        this.endpoint = uri.toString();
+        this.authorization = ZulipClientRegistry.basicAuthorization(zulip.getEmail(), zulip.getApiKey());
+        DescriptorImpl globalConfig = zulip.getGlobalConfig();
+        this.connectTimeout = globalConfig != null ? globalConfig.getConnectTimeout() : 0;
+        ProxyConfiguration proxyConfiguration = Jenkins.get().proxy;
+        if (proxyConfiguration != null && ZulipUtil.isValueSet(proxyConfiguration.name)) {
+            Proxy proxy = proxyConfiguration.createProxy(uri.getHost());
+            if (proxy != Proxy.NO_PROXY) {
+                InetSocketAddress address = (InetSocketAddress) proxy.address();
+                this.proxyHost = address.getHostName();
+                this.proxyPort = address.getPort();
+                this.proxyUserName = proxyConfiguration.getUserName();
+                this.proxyPassword = Secret.toString(proxyConfiguration.getSecretPassword());
+            }
+        }
+    }
+
+    /**
+     * @return URI of the uploaded file, relative to the Zulip server
+     */
+    @Override
+    public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        if (!file.isFile()) {
+            throw new IOException("Cannot upload " + file + " to Zulip, it is not a file");
+        }
+        HttpClient.Builder clientBuilder = HttpClient.newBuilder();
+        if (connectTimeout > 0) {
+            clientBuilder.connectTimeout(Duration.ofSeconds(connectTimeout));
+        }
+        if (proxyHost != null) {
+            clientBuilder.proxy(ProxySelector.of(InetSocketAddress.createUnresolved(proxyHost, proxyPort)));
+            if (ZulipUtil.isValueSet(proxyUserName)) {
+                clientBuilder.authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        // The Zulip server itself is authenticated by the Authorization header
+                        if (getRequestorType() != RequestorType.PROXY) {
+                            return null;
+                        }
+                        return new PasswordAuthentication(proxyUserName, proxyPassword.toCharArray());
+                    }
+                });
+            }
+        }
+        MultipartBodyPublisher body = new MultipartBodyPublisher("file", file, file.getName());
+        // No request timeout, uploads take as long as the file size requires
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(endpoint))
+                .header("User-Agent", "ZulipJenkins/0.1.2")
+                .header("Content-Type", body.getContentType())
+                .header("Authorization", authorization)
+                .POST(body)
+                .build();
+        HttpResponse<String> response = clientBuilder.build().send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Zulip upload of " + file.getName() + " failed with status "
+                    + response.statusCode() + ": " + response.body());
+        }
+        try {
+            JSONObject json = JSONObject.fromObject(response.body());
+            // Zulip 9 renamed the field, older servers only know the original one
+            String uri = json.optString("uri", json.optString("url", null));
+            if (uri == null) {
+                throw new IOException("Zulip upload response does not contain uri: " + response.body());
+            }
+            return uri;
+        } catch (JSONException e) {
+            throw new IOException("Unexpected Zulip upload response: " + response.body(), e);
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package jenkins.plugins.zulip;
 
+import hudson.EnvVars;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
 import hudson.model.ModelObject;
@@ -59,7 +60,9 @@ public class ZulipUtil {
 
     /**
      * Expands the variables in the given value by using environment variables from
-     * the build process
+     * the build process.<br/>
+     * Notifications expanding several values should get the environment once with
+     * {@link #getEnvironment(Run, TaskListener)} and use {@link #expandVariables(EnvVars, String)}.
      *
      * @param run      A build this is running as part of
      * @param listener A place to send output
@@ -68,13 +71,37 @@ public class ZulipUtil {
      */
     public static String expandVariables(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener, String value)
             throws InterruptedException {
-        String expandedMessage = value;
+        return expandVariables(getEnvironment(run, listener), value);
+    }
+
+    /**
+     * Expands the variables in the given value
+     *
+     * @param environment The environment of the build, see {@link #getEnvironment(Run, TaskListener)}
+     * @param value       A value to expand variables in
+     * @return The value with expanded variables
+     */
+    public static String expandVariables(@Nonnull EnvVars environment, String value) {
+        return environment.expand(value);
+    }
+
+    /**
+     * Gets the environment of the run for a single notification.<br/>
+     * Not cached across notifications: actions contribute to the environment and may
+     * change their variables in place at any time, e.g. {@code env.FOO = 'x'} in a Pipeline.
+     *
+     * @param run      A build this is running as part of
+     * @param listener A place to send output
+     * @return The run environment, empty if it cannot be computed
+     */
+    public static EnvVars getEnvironment(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws InterruptedException {
         try {
-            expandedMessage = run.getEnvironment(listener).expand(expandedMessage);
+            return run.getEnvironment(listener);
         } catch (IOException ex) {
             logger.severe("Failed to expand message variables: " + ex.getMessage());
+            return new EnvVars();
         }
-        return expandedMessage;
     }
 
     /**
@@ -87,14 +114,17 @@ public class ZulipUtil {
      *                     display name ({@code false}).
      * @param displayLinks Whether to display links to the item and (if relevant)
      *                     its parent items.
-     * @return A string representing the item.
+     * @return A string representing the item, cached by {@link ItemPathCache}.
      */
     public static String displayItem(Item item, DescriptorImpl globalConfig, boolean fullPath, boolean displayLinks) {
-        StringBuilder builder = new StringBuilder();
-        // Don't call getUrl() unless necessary: the logic behind that method is
-        // complex.
-        displayObject(builder, item, displayLinks ? item.getUrl() : null, globalConfig, fullPath, displayLinks);
-        return builder.toString();
+        String rootUrl = displayLinks ? getJenkinsUrl(globalConfig) : null;
+        return ItemPathCache.get(item, fullPath, displayLinks, rootUrl, () -> {
+            StringBuilder builder = new StringBuilder();
+            // Don't call getUrl() unless necessary: the logic behind that method is
+            // complex.
+            displayObject(builder, item, displayLinks ? item.getUrl() : null, globalConfig, fullPath, displayLinks);
+            return builder.toString();
+        });
     }
 
     /**
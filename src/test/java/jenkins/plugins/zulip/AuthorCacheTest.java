@@ -0,0 +1,132 @@
+package jenkins.plugins.zulip;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+public class AuthorCacheTest {
+
+    @Test
+    public void testResolvesAuthorOnce() {
+        AuthorCache cache = new AuthorCache(10, 60000);
+        NamedEntry first = new NamedEntry("jdoe");
+        NamedEntry second = new NamedEntry("jdoe");
+        assertEquals("John jdoe", cache.getDisplayName(first));
+        assertEquals("John jdoe", cache.getDisplayName(second));
+        assertEquals(1, first.resolutions + second.resolutions);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testResolvesExpiredAuthorAgain() {
+        AuthorCache cache = new AuthorCache(10, 0);
+        NamedEntry entry = new NamedEntry("jdoe");
+        cache.getDisplayName(entry);
+        cache.getDisplayName(entry);
+        assertEquals(2, entry.resolutions);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedAuthor() {
+        AuthorCache cache = new AuthorCache(2, 60000);
+        NamedEntry first = new NamedEntry("first");
+        cache.getDisplayName(first);
+        cache.getDisplayName(new NamedEntry("second"));
+        cache.getDisplayName(first);
+        cache.getDisplayName(new NamedEntry("third"));
+        assertEquals(2, cache.getSize());
+        cache.getDisplayName(first);
+        assertEquals("Most recently used author should stay cached", 1, first.resolutions);
+        NamedEntry second = new NamedEntry("second");
+        cache.getDisplayName(second);
+        assertEquals("Least recently used author should be evicted", 1, second.resolutions);
+    }
+
+    @Test
+    public void testKeepsAuthorsOfSameNameWithDifferentEmailApart() {
+        AuthorCache cache = new AuthorCache(10, 60000);
+        NamedEntry work = new EmailEntry("jdoe", "jdoe@example.com");
+        NamedEntry home = new EmailEntry("jdoe", "jdoe@example.org");
+        cache.getDisplayName(work);
+        cache.getDisplayName(home);
+        cache.getDisplayName(new NamedEntry("jdoe"));
+        assertEquals(1, work.resolutions);
+        assertEquals(1, home.resolutions);
+        assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testResolvesEntriesWithoutAuthorNameEveryTime() {
+        AuthorCache cache = new AuthorCache(10, 60000);
+        User user = Mockito.mock(User.class);
+        when(user.getDisplayName()).thenReturn("John");
+        ChangeLogSet.Entry entry = Mockito.mock(ChangeLogSet.Entry.class);
+        when(entry.getAuthor()).thenReturn(user);
+        assertEquals("John", cache.getDisplayName(entry));
+        assertEquals("John", cache.getDisplayName(entry));
+        Mockito.verify(entry, Mockito.times(2)).getAuthor();
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Entry exposing the raw author name and email, like Git change sets do
+     */
+    public static class EmailEntry extends NamedEntry {
+
+        private final String authorEmail;
+
+        EmailEntry(String authorName, String authorEmail) {
+            super(authorName);
+            this.authorEmail = authorEmail;
+        }
+
+        public String getAuthorEmail() {
+            return authorEmail;
+        }
+    }
+
+    /**
+     * Entry exposing the raw author name
+     */
+    public static class NamedEntry extends ChangeLogSet.Entry {
+
+        private final String authorName;
+        private int resolutions;
+
+        NamedEntry(String authorName) {
+            this.authorName = authorName;
+        }
+
+        public String getAuthorName() {
+            return authorName;
+        }
+
+        @Override
+        public String getMsg() {
+            return "Commit";
+        }
+
+        @Override
+        public User getAuthor() {
+            resolutions++;
+            User user = Mockito.mock(User.class);
+            when(user.getDisplayName()).thenReturn("John " + authorName);
+            return user;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.emptyList();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package jenkins.plugins.zulip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.model.AbstractBuild;
+import hudson.model.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.FakeChangeLogSCM;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class ChangeLogRendererTest {
+
+    private AbstractBuild<?, ?> build;
+    private MockedStatic<User> userStatic;
+    private final List<FakeChangeLogSCM.EntryImpl> changes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        userStatic = Mockito.mockStatic(User.class);
+        userStatic.when(() -> User.get(anyString())).thenAnswer(invocation -> {
+            User userMock = Mockito.mock(User.class);
+            when(userMock.getDisplayName()).thenReturn(invocation.getArgument(0));
+            return userMock;
+        });
+        build = Mockito.mock(AbstractBuild.class);
+        when(build.hasChangeSetComputed()).thenReturn(true);
+        when(build.getChangeSet()).thenAnswer(invocation -> new FakeChangeLogSCM.FakeChangeLogSet(build, changes));
+    }
+
+    @After
+    public void tearDown() {
+        userStatic.close();
+    }
+
+    @Test
+    public void testRendersAllChangesWithoutLimits() {
+        addChanges("Author 1", 3);
+        assertEquals("Changes since last build:\n\n* `Author 1` Commit 0\n* `Author 1` Commit 1\n* `Author 1` Commit 2",
+                new ChangeLogRenderer(0, 0, false, false).render(build));
+    }
+
+    @Test
+    public void testStopsAtEntryBudget() {
+        addChanges("Author 1", 1000);
+        assertEquals("Changes since last build:\n\n* `Author 1` Commit 0\n* `Author 1` Commit 1\n\n+998 more changes",
+                new ChangeLogRenderer(2, 0, false, false).render(build));
+    }
+
+    @Test
+    public void testStopsAtLengthBudget() {
+        addChanges("Author 1", 3);
+        String header = "Changes since last build:\n";
+        String line = "\n* `Author 1` Commit 0";
+        assertEquals(header + line + "\n\n+2 more changes",
+                new ChangeLogRenderer(0, header.length() + line.length() + 1, false).render(build));
+    }
+
+    @Test
+    public void testGroupsByAuthor() {
+        addChanges("Author 1", 2);
+        addChanges("Author 2", 1);
+        changes.add(new FakeChangeLogSCM.EntryImpl().withAuthor("Author 1").withMsg("Commit 2"));
+        assertEquals("Changes since last build:\n"
+                + "\n* `Author 1`\n    * Commit 0\n    * Commit 1\n    * Commit 2"
+                + "\n* `Author 2`\n    * Commit 0",
+                new ChangeLogRenderer(0, 0, true, false).render(build));
+    }
+
+    @Test
+    public void testNoChanges() {
+        assertEquals("", new ChangeLogRenderer(10, 100, false, false).render(build));
+        when(build.hasChangeSetComputed()).thenReturn(false);
+        assertEquals("Could not determine changes since last build.", new ChangeLogRenderer(10, 100, false, false).render(build));
+    }
+
+    private void addChanges(String author, int count) {
+        for (int i = 0; i < count; i++) {
+            changes.add(new FakeChangeLogSCM.EntryImpl().withAuthor(author).withMsg("Commit " + i));
+        }
+    }
+
+}
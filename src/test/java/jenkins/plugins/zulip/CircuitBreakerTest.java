@@ -0,0 +1,88 @@
+package jenkins.plugins.zulip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testStaysClosedUntilWindowIsFull() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, 60000);
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(25, breaker.getFailureRate());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // Oldest successes slide out of the window
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testSingleTrialWhenHalfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 1, 0);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testClosesAndNotifiesOnRecovery() {
+        AtomicInteger recoveries = new AtomicInteger();
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 1, 0);
+        breaker.setRecoveryListener(recoveries::incrementAndGet);
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, recoveries.get());
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(1, recoveries.get());
+    }
+
+    @Test
+    public void testRegistryReplacesBreakerWhenSettingsChange() {
+        CircuitBreaker breaker = CircuitBreaker.get("http://registry.test/", 50, 10, 1000, null);
+        assertSame(breaker, CircuitBreaker.get("http://registry.test/", 50, 10, 1000, null));
+        assertFalse(breaker == CircuitBreaker.get("http://registry.test/", 50, 20, 1000, null));
+    }
+
+    @Test
+    public void testRegistryKeepsRecoveryListenerOfCreatedBreaker() {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger later = new AtomicInteger();
+        CircuitBreaker breaker = CircuitBreaker.get("http://listener.test/", 50, 1, 0, first::incrementAndGet);
+        assertSame(breaker, CircuitBreaker.get("http://listener.test/", 50, 1, 0, later::incrementAndGet));
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(1, first.get());
+        assertEquals(0, later.get());
+    }
+
+}
@@ -0,0 +1,51 @@
+package jenkins.plugins.zulip;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFilterTest {
+
+    private static final long WINDOW = 16000;
+
+    @Test
+    public void testSuppressesRepeatsWithinWindow() {
+        DuplicateFilter filter = new DuplicateFilter();
+        assertFalse(filter.isDuplicate("stream", "topic", "message", WINDOW, 100000));
+        assertTrue(filter.isDuplicate("stream", "topic", "message", WINDOW, 110000));
+        assertFalse(filter.isDuplicate("stream", "other", "message", WINDOW, 110000));
+        assertFalse(filter.isDuplicate("stream", "topic", "other", WINDOW, 110000));
+        assertEquals(1, filter.getSuppressedCount());
+        // Window elapsed
+        assertFalse(filter.isDuplicate("stream", "topic", "message", WINDOW, 116000));
+    }
+
+    @Test
+    public void testExpiresEntriesAsTimeAdvances() {
+        DuplicateFilter filter = new DuplicateFilter();
+        for (int i = 0; i < 5000; i++) {
+            // Spread over several ticks of the wheel
+            assertFalse(filter.isDuplicate("stream", "topic", "message " + i, WINDOW, 100000 + i));
+        }
+        assertEquals(5000, filter.size());
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(filter.isDuplicate("stream", "topic", "message " + i, WINDOW, 105000));
+        }
+        // Entries of the first ticks expired, the others are still found after removals shifted them
+        assertTrue(filter.isDuplicate("stream", "topic", "message 4999", WINDOW, 116500));
+        assertEquals(4000, filter.size());
+        assertFalse(filter.isDuplicate("stream", "topic", "message 0", WINDOW, 116500));
+        filter.isDuplicate("stream", "topic", "message", WINDOW, 200000);
+        assertEquals(1, filter.size());
+    }
+
+    @Test
+    public void testHashSeparatesFields() {
+        assertNotEquals(DuplicateFilter.hash("ab", "c", "m"), DuplicateFilter.hash("a", "bc", "m"));
+        assertEquals(DuplicateFilter.hash("a", "b", "c"), DuplicateFilter.hash("a", "b", "c"));
+    }
+
+}
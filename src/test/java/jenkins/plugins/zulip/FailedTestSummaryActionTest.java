@@ -0,0 +1,79 @@
+package jenkins.plugins.zulip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import hudson.model.Run;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FailedTestSummaryActionTest {
+
+    @Test
+    public void testListsFirstFailures() {
+        List<TestResult> failures = Arrays.asList(failure("a.ATest.first", 1), failure("a.ATest.second", 3),
+                failure("b.BTest.third", 1), failure("b.BTest.fourth", 2));
+        FailedTestSummaryAction summary = FailedTestSummaryAction.summarize(failures, 4, 2);
+        // Only the listed failures are looked at, previous results of the others might have to be loaded
+        verify((CaseResult) failures.get(2), never()).getAge();
+        assertEquals(-1, summary.getNewCount());
+        assertEquals(-1, summary.getExistingCount());
+        assertEquals("**Failed tests**:\n* `a.ATest.first` *new*\n* `a.ATest.second`\n* +2 more", summary.render(2));
+        assertEquals("**Failed tests**:\n* `a.ATest.first` *new*\n* +3 more", summary.render(1));
+
+        FailedTestSummaryAction all = FailedTestSummaryAction.summarize(failures, 4, 4);
+        assertEquals(2, all.getNewCount());
+        assertEquals(2, all.getExistingCount());
+        assertEquals("**Failed tests** (2 new, 2 still failing):\n* `a.ATest.first` *new*\n* `a.ATest.second`"
+                + "\n* +2 more", all.render(2));
+        // Names of failed tests are not known
+        assertEquals("", FailedTestSummaryAction.summarize(new ArrayList<>(), 4, 2).render(2));
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testReusesSummaryOfBuild() {
+        Run run = Mockito.mock(Run.class);
+        AbstractTestResultAction tests = Mockito.mock(AbstractTestResultAction.class);
+        when(run.getAction(AbstractTestResultAction.class)).thenReturn(tests);
+        when(tests.getFailCount()).thenReturn(1);
+        when(tests.getFailedTests()).thenReturn(Arrays.asList(failure("a.ATest.first", 1)));
+        AtomicReference<FailedTestSummaryAction> action = new AtomicReference<>();
+        when(run.getAction(FailedTestSummaryAction.class)).thenAnswer(invocation -> action.get());
+        doAnswer(invocation -> {
+            action.set(invocation.getArgument(0));
+            return null;
+        }).when(run).replaceAction(any());
+
+        FailedTestSummaryAction summary = FailedTestSummaryAction.of(run, 10);
+        assertSame(summary, FailedTestSummaryAction.of(run, 5));
+        verify(tests, times(1)).getFailedTests();
+        // More test results recorded since
+        when(tests.getFailCount()).thenReturn(2);
+        FailedTestSummaryAction.of(run, 10);
+        verify(tests, times(2)).getFailedTests();
+    }
+
+    private static CaseResult failure(String name, int age) {
+        CaseResult result = Mockito.mock(CaseResult.class);
+        when(result.getFullDisplayName()).thenReturn(name);
+        when(result.getAge()).thenReturn(age);
+        return result;
+    }
+
+}
@@ -0,0 +1,93 @@
+package jenkins.plugins.zulip;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FormBodyPublisherTest {
+
+    @Test
+    public void testEncodesLikeUrlEncoder() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("type", "stream");
+        parameters.put("to", "testStreamůř");
+        parameters.put("subject", "a b&c=d/e~f*g_h.i-j");
+        parameters.put("content", "Build 😀 failed € \uD800 \n done");
+        parameters.put("empty", null);
+
+        FormBodyPublisher publisher = new FormBodyPublisher(parameters);
+
+        String expected = urlEncode(parameters);
+        assertEquals(expected, publisher.toString());
+        assertEquals(expected.length(), publisher.contentLength());
+        assertEquals(expected, read(publisher));
+    }
+
+    @Test
+    public void testSpansBuffersAndReplays() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < FormBodyPublisher.BUFFER_SIZE; i++) {
+            content.append(i % 2 == 0 ? 'a' : 'ř');
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("content", content.toString());
+
+        FormBodyPublisher publisher = new FormBodyPublisher(parameters);
+
+        String expected = urlEncode(parameters);
+        assertTrue(publisher.contentLength() > FormBodyPublisher.BUFFER_SIZE);
+        assertEquals(expected, read(publisher));
+        // Retries publish the same body again
+        assertEquals(expected, read(publisher));
+        publisher.release();
+    }
+
+    private static String urlEncode(Map<String, String> parameters) {
+        return parameters.entrySet().stream()
+                .map(e -> e.getKey() + "="
+                        + URLEncoder.encode(e.getValue() != null ? e.getValue() : "", StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+    }
+
+    private static String read(FormBodyPublisher publisher) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                body.write(bytes, 0, bytes.length);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throw new AssertionError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return new String(body.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,76 @@
+package jenkins.plugins.zulip;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.Item;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+public class ItemPathCacheTest {
+
+    @After
+    public void tearDown() {
+        ItemPathCache.invalidateAll();
+    }
+
+    @Test
+    public void testCachesPathPerVariant() {
+        Item item = mockItem("folder/job");
+        AtomicInteger renders = new AtomicInteger();
+        assertEquals("path", ItemPathCache.get(item, true, true, "url/", () -> render(renders, "path")));
+        assertEquals("path", ItemPathCache.get(item, true, true, "url/", () -> render(renders, "other")));
+        assertEquals(1, renders.get());
+        assertEquals("short", ItemPathCache.get(item, false, true, "url/", () -> render(renders, "short")));
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testInvalidatesItemsInsideFolder() {
+        Item job = mockItem("folder/job");
+        Item sibling = mockItem("folder2/job");
+        AtomicInteger renders = new AtomicInteger();
+        ItemPathCache.get(job, true, false, "url/", () -> render(renders, "old"));
+        ItemPathCache.get(sibling, true, false, "url/", () -> render(renders, "sibling"));
+        ItemPathCache.invalidate("folder");
+        assertEquals("new", ItemPathCache.get(job, true, false, "url/", () -> render(renders, "new")));
+        assertEquals("sibling", ItemPathCache.get(sibling, true, false, "url/", () -> render(renders, "other")));
+        assertEquals(3, renders.get());
+    }
+
+    @Test
+    public void testRendersAgainWhenRootUrlChanges() {
+        Item item = mockItem("job");
+        AtomicInteger renders = new AtomicInteger();
+        ItemPathCache.get(item, true, true, "url/", () -> render(renders, "[job](url/job)"));
+        assertEquals("[job](new/job)",
+                ItemPathCache.get(item, true, true, "new/", () -> render(renders, "[job](new/job)")));
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testSkipsItemsWithoutFullName() {
+        Item item = mockItem(null);
+        AtomicInteger renders = new AtomicInteger();
+        ItemPathCache.get(item, true, true, "url/", () -> render(renders, "path"));
+        ItemPathCache.get(item, true, true, "url/", () -> render(renders, "path"));
+        assertEquals(2, renders.get());
+        assertEquals(0, ItemPathCache.size());
+    }
+
+    private static Item mockItem(String fullName) {
+        Item item = Mockito.mock(Item.class);
+        when(item.getFullName()).thenReturn(fullName);
+        return item;
+    }
+
+    private static String render(AtomicInteger renders, String path) {
+        renders.incrementAndGet();
+        return path;
+    }
+
+}
@@ -0,0 +1,101 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import hudson.console.ConsoleNote;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogExcerptTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsLastLines() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 1; i <= 10000; i++) {
+            log.append("Line ").append(i).append('\n');
+        }
+        File file = write(log.toString());
+        assertEquals(Arrays.asList("Line 9998", "Line 9999", "Line 10000"),
+                new LogExcerpt(3, null, Long.MAX_VALUE).read(file, StandardCharsets.UTF_8));
+        // Lines spanning chunks
+        assertEquals(10000, new LogExcerpt(20000, null, Long.MAX_VALUE).read(file, StandardCharsets.UTF_8).size());
+        assertEquals("Line 1",
+                new LogExcerpt(20000, null, Long.MAX_VALUE).read(file, StandardCharsets.UTF_8).get(0));
+    }
+
+    @Test
+    public void testStopsAtBudget() throws Exception {
+        File file = write("First line\nSecond line\nThird line");
+        // The line cut by the budget is left out
+        assertEquals(Arrays.asList("Third line"),
+                new LogExcerpt(3, null, "line\nThird line".length()).read(file, StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("Third line"),
+                new LogExcerpt(3, Pattern.compile("line"), "line\nThird line".length())
+                        .read(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadsMatchingLines() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 1; i <= 10000; i++) {
+            log.append(i % 1000 == 0 ? "ERROR " : "INFO ").append(i).append("\r\n");
+        }
+        File file = write(log.toString());
+        assertEquals(Arrays.asList("ERROR 9000", "ERROR 10000"),
+                new LogExcerpt(2, Pattern.compile("^ERROR"), Long.MAX_VALUE).read(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCleansLines() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < LogExcerpt.CHUNK_SIZE * 2; i++) {
+            longLine.append('x');
+        }
+        File file = write(longLine + "\n\nDownloading 10%\rDownloading 100%\n"
+                + ConsoleNote.PREAMBLE_STR + "bm90ZQ==" + ConsoleNote.POSTAMBLE_STR + "job failed\n\n");
+        assertEquals(Arrays.asList(longLine.substring(0, LogExcerpt.MAX_LINE_LENGTH), "Downloading 100%",
+                "job failed"), new LogExcerpt(5, null, Long.MAX_VALUE).read(file, StandardCharsets.UTF_8));
+        assertEquals(Collections.emptyList(),
+                new LogExcerpt(5, null, Long.MAX_VALUE).read(new File(folder.getRoot(), "missing"),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCutsLinesAfterRemovingNotes() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LogExcerpt.MAX_LINE_LENGTH - 10; i++) {
+            text.append('a');
+        }
+        StringBuilder note = new StringBuilder(ConsoleNote.PREAMBLE_STR);
+        for (int i = 0; i < 200; i++) {
+            note.append('Q');
+        }
+        note.append(ConsoleNote.POSTAMBLE_STR);
+        String accented = "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9";
+        File file = write(text + note.toString() + accented + "\n");
+        String expected = text + accented.substring(0, 10);
+        assertEquals(Arrays.asList(expected),
+                new LogExcerpt(1, null, Long.MAX_VALUE).read(file, StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList(expected),
+                new LogExcerpt(1, Pattern.compile("a"), Long.MAX_VALUE).read(file, StandardCharsets.UTF_8));
+    }
+
+    private File write(String content) throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
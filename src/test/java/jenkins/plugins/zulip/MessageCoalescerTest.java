@@ -0,0 +1,84 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class MessageCoalescerTest {
+
+    @Mock
+    private DescriptorImpl descMock;
+
+    @Mock
+    private Zulip zulip;
+
+    @Mock
+    private HttpResponse<String> response;
+
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private MessageCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(zulip.getUrl()).thenReturn("http://zulip/");
+        when(descMock.getCoalesceWindow()).thenReturn(60);
+        when(descMock.getCoalesceMaxMessages()).thenReturn(3);
+        coalescer = new MessageCoalescer((globalConfig, zulip, stream, topic, message, outboxIds) -> {
+            sent.add(stream + ">" + topic + ":" + message);
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    @Test
+    public void testCoalesceUpToMaxMessages() {
+        CompletableFuture<HttpResponse<String>> first = coalescer.add(descMock, zulip, "stream", "topic", "a");
+        coalescer.add(descMock, zulip, "stream", "other", "x");
+        CompletableFuture<HttpResponse<String>> second = coalescer.add(descMock, zulip, "stream", "topic", "b");
+        assertFalse("Batch should wait for more messages", first.isDone());
+        assertTrue(sent.isEmpty());
+
+        CompletableFuture<HttpResponse<String>> third = coalescer.add(descMock, zulip, "stream", "topic", "c");
+        assertEquals(Collections.singletonList("stream>topic:a\n\nb\n\nc"), sent);
+        assertSame("All coalesced messages share the response", response, first.getNow(null));
+        assertSame(response, second.getNow(null));
+        assertSame(response, third.getNow(null));
+        assertEquals("Batch for other topic should still be pending", 1, coalescer.getPendingBatches());
+    }
+
+    @Test
+    public void testRespectMessageLengthLimit() {
+        String longMessage = new String(new char[MessageCoalescer.MAX_MESSAGE_LENGTH - 10]).replace('\0', 'a');
+        coalescer.add(descMock, zulip, "stream", "topic", longMessage);
+        coalescer.add(descMock, zulip, "stream", "topic", "this one does not fit");
+        assertEquals("Full batch should be sent alone", Collections.singletonList("stream>topic:" + longMessage),
+                sent);
+        assertEquals(1, coalescer.getPendingBatches());
+    }
+
+    @Test
+    public void testFlushAfterWindow() throws Exception {
+        when(descMock.getCoalesceWindow()).thenReturn(1);
+        CompletableFuture<HttpResponse<String>> result = coalescer.add(descMock, zulip, "stream", "topic", "a");
+        coalescer.add(descMock, zulip, "stream", "topic", "b");
+        assertSame(response, result.get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("stream>topic:a\n\nb"), sent);
+        assertEquals(0, coalescer.getPendingBatches());
+    }
+
+}
@@ -0,0 +1,70 @@
+package jenkins.plugins.zulip;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageDeliveryTest {
+
+    @Test
+    public void testBreakerRecoversWhenDeadlinePassesDuringRateLimitWait() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 50, 1, 0);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        RateLimiter limiter = new RateLimiter("test");
+        // Limit exhausted, the next token comes in a minute
+        limiter.update(response("1", "0", Long.toString(System.currentTimeMillis() / 1000 + 60)));
+        HttpClient client = Mockito.mock(HttpClient.class);
+
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost/api/v1/messages")).build();
+
+        MessageDelivery delivery = new MessageDelivery(client, request, null, RetryPolicy.NONE, limiter)
+                .withCircuitBreaker(breaker)
+                .withDeadline(System.currentTimeMillis() + 100)
+                .start();
+        try {
+            delivery.getResult().get(5, TimeUnit.SECONDS);
+            fail("Delivery should expire while waiting for the rate limit");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+
+        verify(client, never()).sendAsync(any(), any());
+        // The half-open trial was not taken by the expired delivery
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(String limit, String remaining, String reset) {
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("X-RateLimit-Limit", singletonList(limit));
+        headers.put("X-RateLimit-Remaining", singletonList(remaining));
+        headers.put("X-RateLimit-Reset", singletonList(reset));
+        HttpResponse<String> response = Mockito.mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.headers()).thenReturn(HttpHeaders.of(headers, (name, value) -> true));
+        return response;
+    }
+
+}
@@ -0,0 +1,70 @@
+package jenkins.plugins.zulip;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void testReplacesVariables() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("job", "TestJob");
+        variables.put("failCount", 3);
+        assertEquals("TestJob: 3 failed, ${unknown}",
+                MessageTemplate.compile("${job}: ${failCount} failed, ${unknown}").render(variables::get));
+    }
+
+    @Test
+    public void testRendersSections() {
+        String template = "Build${#changes} with changes:\n${changes}${/changes}${^changes} without changes${/changes}";
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("changes", "");
+        assertEquals("Build without changes", MessageTemplate.compile(template).render(variables::get));
+        variables.put("changes", "* fix");
+        assertEquals("Build with changes:\n* fix", MessageTemplate.compile(template).render(variables::get));
+    }
+
+    @Test
+    public void testRendersNestedSections() {
+        String template = "${#failed}failed${#tests} (${tests} tests)${/tests}${/failed}.";
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("failed", true);
+        variables.put("tests", 2);
+        assertEquals("failed (2 tests).", MessageTemplate.compile(template).render(variables::get));
+        variables.put("failed", false);
+        assertEquals(".", MessageTemplate.compile(template).render(variables::get));
+    }
+
+    @Test
+    public void testKeepsMalformedTags() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "x");
+        assertEquals("x ${/b} ${} ${a", MessageTemplate.compile("${a} ${/b} ${} ${a").render(variables::get));
+        // Unclosed section runs to the end
+        assertEquals("x!", MessageTemplate.compile("${#a}${a}!").render(variables::get));
+    }
+
+    @Test
+    public void testEvaluatesOnlyUsedVariables() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("show", false);
+        MessageTemplate.compile("${#show}${expensive}${/show}").render(name -> {
+            if ("expensive".equals(name)) {
+                throw new AssertionError("Variable of skipped section should not be evaluated");
+            }
+            return variables.get(name);
+        });
+    }
+
+    @Test
+    public void testCachesCompiledTemplates() {
+        String template = "cached ${value}";
+        assertSame(MessageTemplate.compile(template), MessageTemplate.compile(new String(template)));
+    }
+
+}
@@ -0,0 +1,90 @@
+package jenkins.plugins.zulip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Flow;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultipartBodyPublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPublishesFileAsFormPart() throws Exception {
+        File file = folder.newFile("report.txt");
+        Files.write(file.toPath(), "Tests passed".getBytes(StandardCharsets.UTF_8));
+
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher("file", file, "report \"final\".txt");
+
+        String boundary = publisher.getContentType().substring("multipart/form-data; boundary=".length());
+        String expected = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"report %22final%22.txt\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n"
+                + "Tests passed"
+                + "\r\n--" + boundary + "--\r\n";
+        byte[] body = read(publisher);
+        assertEquals(expected, new String(body, StandardCharsets.UTF_8));
+        assertEquals(body.length, publisher.contentLength());
+    }
+
+    @Test
+    public void testSpansChunksAndReplays() throws Exception {
+        File file = folder.newFile("archive.zip");
+        byte[] content = new byte[MultipartBodyPublisher.CHUNK_SIZE * 2 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(file.toPath(), content);
+
+        MultipartBodyPublisher publisher = new MultipartBodyPublisher("file", file, "archive.zip");
+
+        byte[] body = read(publisher);
+        assertEquals(publisher.contentLength(), body.length);
+        assertTrue(publisher.contentLength() > content.length);
+        // Retries publish the same body again
+        assertEquals(new String(body, StandardCharsets.ISO_8859_1),
+                new String(read(publisher), StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] read(MultipartBodyPublisher publisher) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                body.write(bytes, 0, bytes.length);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                throw new AssertionError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        return body.toByteArray();
+    }
+
+}
@@ -0,0 +1,134 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+
+import hudson.model.Result;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationStateIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReturnsResultOfPreviousBuild() throws Exception {
+        NotificationStateIndex index = new NotificationStateIndex(new File(folder.getRoot(), "state.log"));
+        assertNull(index.getPreviousResult("job", 1));
+        index.record("job", 1, Result.FAILURE);
+        assertEquals(Result.FAILURE, index.getPreviousResult("job", 2));
+        index.record("job", 2, Result.UNSTABLE);
+        // Notifying again within the same build still compares with the build before
+        index.record("job", 2, Result.SUCCESS);
+        assertEquals(Result.FAILURE, index.getPreviousResult("job", 2));
+        assertEquals(Result.SUCCESS, index.getPreviousResult("job", 3));
+        assertNull(index.getPreviousResult("other", 3));
+    }
+
+    @Test
+    public void testJudgesConcurrentBuildsByOlderBuildsOnly() throws Exception {
+        File file = new File(folder.getRoot(), "state.log");
+        NotificationStateIndex index = new NotificationStateIndex(file);
+        index.record("job", 3, Result.SUCCESS);
+        // Build 5 completes before build 4, which started earlier
+        index.record("job", 5, Result.FAILURE);
+        assertEquals(Result.SUCCESS, index.getPreviousResult("job", 4));
+        index.record("job", 4, Result.SUCCESS);
+        NotificationStateIndex.History history = index.getHistory("job", 4);
+        assertEquals(2, history.size());
+        assertEquals(0, history.getFailureStreak());
+        assertFalse(SmartNotification.shouldNotify(SmartNotification.Mode.ENABLED, history, 0, 0, 0));
+        assertFalse(SmartNotification.shouldNotify(SmartNotification.Mode.FIXED, history, 0, 0, 0));
+        // Newer builds see the late build in its place
+        assertEquals(Result.FAILURE, index.getPreviousResult("job", 6));
+        index.record("job", 6, Result.FAILURE);
+        assertEquals(2, index.getHistory("job", 6).getFailureStreak());
+        assertEquals(1, index.getHistory("job", 6).countChanges(10));
+        // Builds older than the whole history are not kept
+        for (int number = 7; number < 6 + NotificationStateIndex.HISTORY_SIZE; number++) {
+            index.record("job", number, Result.SUCCESS);
+        }
+        index.record("job", 2, Result.FAILURE);
+        assertNull(index.getPreviousResult("job", 6));
+        // Streaks of older builds survive compaction
+        NotificationStateIndex loaded = new NotificationStateIndex(file);
+        assertEquals(Result.FAILURE, loaded.getPreviousResult("job", 7));
+        assertEquals(2, loaded.getHistory("job", 6).getFailureStreak());
+        assertEquals(0, loaded.getHistory("job", 7).getFailureStreak());
+    }
+
+    @Test
+    public void testLoadsJournal() throws Exception {
+        File file = new File(folder.getRoot(), "zulip/state.log");
+        NotificationStateIndex index = new NotificationStateIndex(file);
+        index.record("folder/job", 1, Result.FAILURE);
+        index.record("folder/job", 2, Result.SUCCESS);
+        index.record("folder/other job", 7, Result.ABORTED);
+        // Reloading also compacts the journal
+        new NotificationStateIndex(file);
+        NotificationStateIndex loaded = new NotificationStateIndex(file);
+        assertEquals(Result.FAILURE, loaded.getPreviousResult("folder/job", 2));
+        assertEquals(Result.SUCCESS, loaded.getPreviousResult("folder/job", 3));
+        assertEquals(Result.ABORTED, loaded.getPreviousResult("folder/other job", 8));
+    }
+
+    @Test
+    public void testMovesRenamedJob() throws Exception {
+        File file = new File(folder.getRoot(), "state.log");
+        NotificationStateIndex index = new NotificationStateIndex(file);
+        index.record("old", 1, Result.FAILURE);
+        index.rename("old", "new");
+        index.record("deleted", 1, Result.FAILURE);
+        index.remove("deleted");
+        NotificationStateIndex loaded = new NotificationStateIndex(file);
+        assertNull(loaded.getPreviousResult("old", 2));
+        assertEquals(Result.FAILURE, loaded.getPreviousResult("new", 2));
+        assertNull(loaded.getPreviousResult("deleted", 2));
+    }
+
+    @Test
+    public void testKeepsRecentHistory() throws Exception {
+        File file = new File(folder.getRoot(), "state.log");
+        NotificationStateIndex index = new NotificationStateIndex(file);
+        index.record("job", 1, Result.SUCCESS);
+        for (int number = 2; number <= 50; number++) {
+            index.record("job", number, number % 2 == 0 ? Result.FAILURE : Result.UNSTABLE);
+        }
+        NotificationStateIndex.History history = index.getHistory("job", 50);
+        assertEquals(NotificationStateIndex.HISTORY_SIZE, history.size());
+        assertEquals(Result.FAILURE, history.get(0));
+        assertEquals(Result.UNSTABLE, history.get(1));
+        assertEquals(49, history.getFailureStreak());
+        assertEquals(9, history.countChanges(10));
+        // Streaks longer than the history survive compaction
+        new NotificationStateIndex(file);
+        NotificationStateIndex loaded = new NotificationStateIndex(file);
+        assertEquals(49, loaded.getHistory("job", 50).getFailureStreak());
+        assertEquals(48, loaded.getHistory("job", 49).getFailureStreak());
+        loaded.record("job", 51, Result.SUCCESS);
+        assertEquals(0, loaded.getHistory("job", 51).getFailureStreak());
+        assertEquals(0, index.getHistory("unknown", 1).size());
+    }
+
+    @Test
+    public void testDoesNotCompactOnEveryRecord() throws Exception {
+        NotificationStateIndex index = new NotificationStateIndex(new File(folder.getRoot(), "state.log"));
+        // Full histories leave far more records after compaction than there are jobs
+        for (int number = 1; number <= 100; number++) {
+            for (int job = 0; job < 100; job++) {
+                index.record("job" + job, number, number % 2 == 0 ? Result.FAILURE : Result.SUCCESS);
+            }
+        }
+        assertTrue("Compaction should be amortized, ran " + index.getCompactions() + " times",
+                index.getCompactions() < 10);
+        assertEquals(Result.SUCCESS, index.getPreviousResult("job7", 100));
+    }
+
+}
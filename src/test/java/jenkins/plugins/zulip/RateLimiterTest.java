@@ -0,0 +1,74 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testNoPacingUntilLimitIsKnown() {
+        RateLimiter limiter = new RateLimiter("test");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+        assertTrue(Double.isInfinite(limiter.getTokens()));
+    }
+
+    @Test
+    public void testPaceWhenLimitIsExhausted() {
+        RateLimiter limiter = new RateLimiter("test");
+        long resetInSeconds = System.currentTimeMillis() / 1000 + 60;
+        // 200 requests per minute, 2 left, full again in a minute
+        limiter.update(response("200", "2", Long.toString(resetInSeconds)));
+        assertEquals(200, limiter.getCapacity(), 0);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        long wait = limiter.reserve();
+        // 198 tokens refill in about 60 seconds, so one token takes roughly 300 ms
+        assertTrue("Unexpected wait " + wait, wait > 200 && wait < 400);
+        assertTrue(limiter.reserve() > wait);
+        assertTrue(limiter.getTokens() < 0);
+    }
+
+    @Test
+    public void testIgnoreResponsesWithoutHeaders() {
+        RateLimiter limiter = new RateLimiter("test");
+        limiter.update(response(null, null, null));
+        limiter.update(null);
+        assertEquals(0, limiter.reserve());
+        assertTrue(Double.isInfinite(limiter.getCapacity()));
+    }
+
+    @Test
+    public void testSharedPerAccount() {
+        assertSame(RateLimiter.get("http://zulip/", "bot@zulip.com"), RateLimiter.get("http://zulip/", "bot@zulip.com"));
+        assertTrue(RateLimiter.get("http://zulip/", "bot@zulip.com") != RateLimiter.get("http://zulip/", "other@zulip.com"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(String limit, String remaining, String reset) {
+        Map<String, List<String>> headers = new HashMap<>();
+        if (limit != null) {
+            headers.put("X-RateLimit-Limit", singletonList(limit));
+            headers.put("X-RateLimit-Remaining", singletonList(remaining));
+            headers.put("X-RateLimit-Reset", singletonList(reset));
+        }
+        HttpResponse<String> response = Mockito.mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.headers()).thenReturn(HttpHeaders.of(headers, (name, value) -> true));
+        return response;
+    }
+
+}
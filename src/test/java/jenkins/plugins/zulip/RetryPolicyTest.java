@@ -0,0 +1,88 @@
+package jenkins.plugins.zulip;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testRetryableStatuses() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 60000, 300000, " 429, 503,foo,", true);
+        assertTrue(policy.isRetryable(429));
+        assertTrue(policy.isRetryable(503));
+        assertFalse(policy.isRetryable(500));
+        assertFalse(policy.isRetryable(400));
+        assertFalse(RetryPolicy.NONE.isRetryable(429));
+        assertEquals(1, RetryPolicy.NONE.getMaxAttempts());
+    }
+
+    @Test
+    public void testRetriesOnlyFailuresToConnect() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 60000, 300000, "", true);
+        assertTrue(policy.isRetryable(new ConnectException("Connection refused")));
+        assertTrue(policy.isRetryable(new HttpConnectTimeoutException("connect timed out")));
+        assertTrue(policy.isRetryable(new IOException("Failed", new UnknownHostException("zulip.invalid"))));
+        // The request may have been processed, sending it again could post the message twice
+        assertFalse(policy.isRetryable(new HttpTimeoutException("request timed out")));
+        assertFalse(policy.isRetryable(new IOException("Connection reset")));
+        assertFalse(new RetryPolicy(3, 1000, 60000, 300000, "", false)
+                .isRetryable(new ConnectException("Connection refused")));
+    }
+
+    @Test
+    public void testExponentialBackoffWithJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 5000, 300000, "", true);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500, 1000, policy.getDelayMillis(1, null));
+            assertBetween(1000, 2000, policy.getDelayMillis(2, null));
+            assertBetween(2000, 4000, policy.getDelayMillis(3, null));
+            assertBetween(2500, 5000, policy.getDelayMillis(4, null));
+            assertBetween(2500, 5000, policy.getDelayMillis(40, null));
+        }
+    }
+
+    @Test
+    public void testHonourRetryAfter() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 5000, 300000, "429", true);
+        assertEquals(12000, policy.getDelayMillis(1, response(429, "Retry-After", "12")));
+        assertEquals(500, policy.getDelayMillis(1, response(429, "Retry-After", "0.5")));
+        // Retry-After is honoured even when exceeding maximum delay
+        assertEquals(30000, policy.getDelayMillis(1, response(429, "Retry-After", "30")));
+        long resetDelay = policy.getDelayMillis(1, response(429, "X-RateLimit-Reset",
+                Long.toString(System.currentTimeMillis() / 1000 + 20)));
+        assertBetween(18000, 20000, resetDelay);
+        assertNull(RetryPolicy.getRetryAfterMillis(response(503, "X-RateLimit-Reset", "1")));
+        assertNull(RetryPolicy.getRetryAfterMillis(response(429, "Retry-After", "soon")));
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " should be between " + min + " and " + max, value >= min && value <= max);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int status, String header, String value) {
+        HttpResponse<String> response = Mockito.mock(HttpResponse.class);
+        Map<String, List<String>> headers = Collections.singletonMap(header, Collections.singletonList(value));
+        when(response.statusCode()).thenReturn(status);
+        when(response.headers()).thenReturn(HttpHeaders.of(headers, (name, headerValue) -> true));
+        return response;
+    }
+
+}
@@ -1,8 +1,14 @@
 package jenkins.plugins.zulip;
 
+import hudson.model.Result;
+import jenkins.plugins.zulip.NotificationStateIndex.History;
+import jenkins.plugins.zulip.SmartNotification.Mode;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SmartNotificationTest {
@@ -24,4 +30,61 @@ public class SmartNotificationTest {
         assertFalse(SmartNotification.isSmartNotifyEnabled("DISABLED", false));
     }
 
+    @Test
+    public void testGetExtendedMode() {
+        assertEquals(Mode.STATE_CHANGE, SmartNotification.getExtendedMode("stateChange"));
+        assertEquals(Mode.FLAKY, SmartNotification.getExtendedMode("FLAKY"));
+        assertNull(SmartNotification.getExtendedMode("enabled"));
+        assertNull(SmartNotification.getExtendedMode(null));
+    }
+
+    @Test
+    public void testEnabledMode() {
+        assertTrue(notify(Mode.ENABLED, Result.SUCCESS));
+        assertTrue(notify(Mode.ENABLED, Result.FAILURE, Result.FAILURE));
+        assertTrue(notify(Mode.ENABLED, Result.SUCCESS, Result.FAILURE));
+        assertFalse(notify(Mode.ENABLED, Result.SUCCESS, Result.SUCCESS));
+    }
+
+    @Test
+    public void testStateChangeMode() {
+        assertTrue(notify(Mode.STATE_CHANGE, Result.SUCCESS));
+        assertTrue(notify(Mode.STATE_CHANGE, Result.UNSTABLE, Result.FAILURE));
+        assertFalse(notify(Mode.STATE_CHANGE, Result.FAILURE, Result.FAILURE));
+        assertFalse(notify(Mode.STATE_CHANGE, Result.SUCCESS, Result.SUCCESS));
+    }
+
+    @Test
+    public void testStillFailingMode() {
+        assertTrue(notify(Mode.STILL_FAILING, Result.FAILURE, Result.SUCCESS));
+        assertFalse(notify(Mode.STILL_FAILING, Result.FAILURE, Result.FAILURE, Result.SUCCESS));
+        assertFalse(notify(Mode.STILL_FAILING, Result.FAILURE, Result.FAILURE, Result.FAILURE, Result.SUCCESS));
+        assertTrue(notify(Mode.STILL_FAILING, Result.FAILURE, Result.FAILURE, Result.FAILURE, Result.FAILURE,
+                Result.SUCCESS));
+        assertTrue(notify(Mode.STILL_FAILING, Result.SUCCESS, Result.FAILURE));
+        assertFalse(notify(Mode.STILL_FAILING, Result.SUCCESS, Result.SUCCESS));
+    }
+
+    @Test
+    public void testFixedMode() {
+        assertFalse(notify(Mode.FIXED, Result.SUCCESS));
+        assertFalse(notify(Mode.FIXED, Result.FAILURE, Result.SUCCESS));
+        assertTrue(notify(Mode.FIXED, Result.SUCCESS, Result.UNSTABLE));
+        assertFalse(notify(Mode.FIXED, Result.SUCCESS, Result.SUCCESS));
+    }
+
+    @Test
+    public void testFlakyMode() {
+        assertTrue(notify(Mode.FLAKY, Result.SUCCESS, Result.FAILURE, Result.SUCCESS, Result.FAILURE));
+        assertFalse(notify(Mode.FLAKY, Result.SUCCESS, Result.FAILURE, Result.SUCCESS, Result.SUCCESS));
+        // Changes outside of the window don't count
+        assertFalse(notify(Mode.FLAKY, Result.SUCCESS, Result.SUCCESS, Result.SUCCESS, Result.SUCCESS,
+                Result.FAILURE, Result.SUCCESS, Result.FAILURE));
+    }
+
+    private static boolean notify(Mode mode, Result... newestFirst) {
+        // Every 3rd failing build, 3 changes within 4 builds
+        return SmartNotification.shouldNotify(mode, History.of(newestFirst), 3, 3, 4);
+    }
+
 }
@@ -0,0 +1,137 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import hudson.model.Result;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StatusBoardTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPostsOnceThenEditsDebounced() throws Exception {
+        Zulip zulip = Mockito.mock(Zulip.class);
+        HttpResponse<String> posted = Mockito.mock(HttpResponse.class);
+        when(posted.statusCode()).thenReturn(200);
+        when(posted.body()).thenReturn("{\"id\":7,\"result\":\"success\"}");
+        when(zulip.sendUnrecordedStreamMessageAsync(anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(posted));
+        when(zulip.updateMessageAsync(anyLong(), anyString())).thenReturn(CompletableFuture.completedFuture(posted));
+
+        StatusBoard board = new StatusBoard("builds", "status", null);
+        board.update(zulip, 3600, "b", "B", Result.FAILURE, "#1");
+        board.update(zulip, 3600, "a", "A", Result.SUCCESS, "#2");
+        board.flush();
+        verify(zulip, times(1)).sendUnrecordedStreamMessageAsync("builds", "status",
+                "**Build status**\n\n| | Job | Last build |\n|---|---|---|\n"
+                        + "| :check_mark: | A | #2 |\n| :cross_mark: | B | #1 |");
+        assertEquals(7, board.getMessageId());
+
+        board.update(zulip, 3600, "b", "B", Result.SUCCESS, "#3");
+        board.update(zulip, 3600, "b", "B", Result.UNSTABLE, "#4");
+        board.flush();
+        verify(zulip, times(1)).updateMessageAsync(eq(7L), anyString());
+        assertTrue(board.render().endsWith("| :warning: | B | #4 |"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendsUpdatesArrivingDuringEditOnceItCompletes() throws Exception {
+        Zulip zulip = Mockito.mock(Zulip.class);
+        HttpResponse<String> posted = Mockito.mock(HttpResponse.class);
+        when(posted.statusCode()).thenReturn(200);
+        when(posted.body()).thenReturn("{\"id\":7,\"result\":\"success\"}");
+        CompletableFuture<HttpResponse<String>> firstPost = new CompletableFuture<>();
+        when(zulip.sendUnrecordedStreamMessageAsync(anyString(), anyString(), anyString())).thenReturn(firstPost);
+        when(zulip.updateMessageAsync(anyLong(), anyString())).thenReturn(CompletableFuture.completedFuture(posted));
+
+        StatusBoard board = new StatusBoard("builds", "status", null);
+        board.update(zulip, 3600, "a", "A", Result.FAILURE, "#1");
+        board.flush();
+        board.update(zulip, 3600, "a", "A", Result.SUCCESS, "#2");
+        board.flush();
+        verify(zulip, never()).updateMessageAsync(anyLong(), anyString());
+
+        firstPost.complete(posted);
+        verify(zulip).updateMessageAsync(eq(7L), endsWith("| :check_mark: | A | #2 |"));
+    }
+
+    @Test
+    public void testRemovesRowsOfDeletedJobs() throws Exception {
+        File file = new File(folder.getRoot(), "status-board.log");
+        StatusBoard.Journal journal = new StatusBoard.Journal(file);
+        StatusBoard board = new StatusBoard("builds", "status", journal);
+        board.update(null, 3600, "a", "A", Result.SUCCESS, "#1");
+        board.update(null, 3600, "b", "B", Result.SUCCESS, "#1");
+        board.remove("a");
+        assertFalse(board.render().contains("| A |"));
+
+        Map<String, StatusBoard> boards = new HashMap<>();
+        new StatusBoard.Journal(file).load(boards);
+        String reloaded = boards.values().iterator().next().render();
+        assertFalse(reloaded.contains("| A |"));
+        assertTrue(reloaded.endsWith("| :check_mark: | B | #1 |"));
+    }
+
+    @Test
+    public void testJournalIsCompactedOnLoad() throws IOException {
+        File file = new File(folder.getRoot(), "status-board.log");
+        StatusBoard.Journal journal = new StatusBoard.Journal(file);
+        for (int i = 0; i < 100; i++) {
+            journal.appendRow("builds", "status\tboard", "job", "| :check_mark: | job | #" + i + " |");
+        }
+        journal.appendMessageId("builds", "status\tboard", 42);
+
+        Map<String, StatusBoard> boards = new HashMap<>();
+        new StatusBoard.Journal(file).load(boards);
+
+        assertEquals(1, boards.size());
+        StatusBoard board = boards.values().iterator().next();
+        assertEquals(42, board.getMessageId());
+        assertTrue(board.render().endsWith("| :check_mark: | job | #99 |"));
+        assertEquals("Only current state should be kept", 2, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void testJournalIsCompactedOnceItDoubled() throws IOException {
+        File file = new File(folder.getRoot(), "status-board.log");
+        StatusBoard.Journal journal = new StatusBoard.Journal(file);
+        StatusBoard board = new StatusBoard("builds", "status", journal);
+        for (int i = 0; i < 1500; i++) {
+            board.update(null, 3600, "a", "A", Result.SUCCESS, "#" + i);
+        }
+
+        assertEquals(1, journal.getCompactions());
+        // The single row left by the compaction and the 499 updates since
+        assertEquals(500, Files.readAllLines(file.toPath()).size());
+        Map<String, StatusBoard> boards = new HashMap<>();
+        new StatusBoard.Journal(file).load(boards);
+        assertTrue(boards.values().iterator().next().render().endsWith("| :check_mark: | A | #1499 |"));
+    }
+
+}
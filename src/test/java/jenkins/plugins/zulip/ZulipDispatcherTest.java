@@ -0,0 +1,149 @@
+package jenkins.plugins.zulip;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ZulipDispatcherTest {
+
+    @Mock
+    private DescriptorImpl descMock;
+
+    @Mock
+    private Zulip zulip;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(descMock.isAsyncMode()).thenReturn(true);
+        when(descMock.getAsyncQueueCapacity()).thenReturn(10);
+        when(descMock.getAsyncWorkers()).thenReturn(2);
+        when(descMock.getAsyncOverflowPolicy()).thenReturn("DROP_NEWEST");
+    }
+
+    @Test
+    public void testSynchronousByDefault() {
+        when(descMock.isAsyncMode()).thenReturn(false);
+        CompletableFuture<HttpResponse<String>> result = ZulipDispatcher.get()
+                .sendStreamMessage(descMock, zulip, "stream", "topic", "message");
+        assertTrue("Message should be sent before returning", result.isDone());
+        verify(zulip).sendStreamMessage("stream", "topic", "message");
+    }
+
+    @Test
+    public void testNonBlockingSend() throws Exception {
+        when(descMock.isAsyncMode()).thenReturn(false);
+        CompletableFuture<HttpResponse<String>> sent = new CompletableFuture<>();
+        when(zulip.sendStreamMessageAsync("stream", "topic", "non-blocking")).thenReturn(sent);
+        CompletableFuture<HttpResponse<String>> result = ZulipDispatcher.get()
+                .sendStreamMessageAsync(descMock, zulip, "stream", "topic", "non-blocking");
+        assertFalse("Should not wait for Zulip", result.isDone());
+        verify(zulip, never()).sendStreamMessage(anyString(), anyString(), anyString());
+        sent.completeExceptionally(new IOException("Connection refused"));
+        assertNull("Failures should complete with null", result.get());
+    }
+
+    @Test
+    public void testSuppressesDuplicates() throws Exception {
+        when(descMock.isAsyncMode()).thenReturn(false);
+        when(descMock.getDuplicateWindow()).thenReturn(60);
+        long suppressed = ZulipDispatcher.get().getSuppressedCount();
+        ZulipDispatcher.get().sendStreamMessage(descMock, zulip, "dedup", "topic", "message");
+        assertNull(ZulipDispatcher.get().sendStreamMessage(descMock, zulip, "dedup", "topic", "message").get());
+        ZulipDispatcher.get().sendStreamMessage(descMock, zulip, "dedup", "other topic", "message");
+        verify(zulip).sendStreamMessage("dedup", "topic", "message");
+        verify(zulip).sendStreamMessage("dedup", "other topic", "message");
+        assertEquals(suppressed + 1, ZulipDispatcher.get().getSuppressedCount());
+    }
+
+    @Test
+    public void testAsynchronousMode() throws Exception {
+        CompletableFuture<HttpResponse<String>> sent = new CompletableFuture<>();
+        when(zulip.sendStreamMessageAsync("stream", "topic", "message")).thenReturn(sent);
+        CompletableFuture<HttpResponse<String>> result = ZulipDispatcher.get()
+                .sendStreamMessage(descMock, zulip, "stream", "topic", "message");
+        assertFalse("Should not wait for Zulip", result.isDone());
+        verify(zulip, never()).sendStreamMessage(anyString(), anyString(), anyString());
+        sent.complete(null);
+        assertNull(result.get());
+    }
+
+    @Test
+    public void testBoundsRequestsInFlight() throws Exception {
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<String>> second = new CompletableFuture<>();
+        when(zulip.sendStreamMessageAsync("stream", "topic", "first")).thenReturn(first);
+        when(zulip.sendStreamMessageAsync("stream", "topic", "second")).thenReturn(second);
+        when(zulip.sendStreamMessageAsync("stream", "topic", "third"))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        ZulipDispatcher dispatcher = ZulipDispatcher.get();
+        dispatcher.sendStreamMessage(descMock, zulip, "stream", "topic", "first");
+        dispatcher.sendStreamMessage(descMock, zulip, "stream", "topic", "second");
+        CompletableFuture<HttpResponse<String>> third = dispatcher.sendStreamMessage(descMock, zulip, "stream", "topic",
+                "third");
+        // Two workers allow two requests in flight, the third one waits in the queue
+        verify(zulip, never()).sendStreamMessageAsync("stream", "topic", "third");
+        assertEquals(1, dispatcher.getQueueSize());
+        first.complete(null);
+        assertTrue("Completed request should make room for the queued one", third.isDone());
+        second.complete(null);
+    }
+
+    @Test
+    public void testDropNewestWhenQueueIsFull() throws Exception {
+        when(descMock.getAsyncQueueCapacity()).thenReturn(1);
+        when(descMock.getAsyncWorkers()).thenReturn(1);
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        when(zulip.sendStreamMessageAsync("stream", "topic", "first")).thenReturn(first);
+        when(zulip.sendStreamMessageAsync("stream", "topic", "second"))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        long droppedBefore = ZulipDispatcher.get().getDroppedCount();
+        ZulipDispatcher dispatcher = ZulipDispatcher.get();
+        // First message is the single request in flight, second one fills the queue
+        dispatcher.sendStreamMessage(descMock, zulip, "stream", "topic", "first");
+        CompletableFuture<HttpResponse<String>> queued = dispatcher.sendStreamMessage(descMock, zulip, "stream",
+                "topic", "second");
+        CompletableFuture<HttpResponse<String>> dropped = dispatcher.sendStreamMessage(descMock, zulip, "stream",
+                "topic", "third");
+        assertTrue("Overflowing message should be dropped", dropped.isDone());
+        assertFalse(queued.isDone());
+        assertEquals(droppedBefore + 1, dispatcher.getDroppedCount());
+        first.complete(null);
+        queued.get();
+        verify(zulip).sendStreamMessageAsync("stream", "topic", "second");
+        verify(zulip, never()).sendStreamMessageAsync("stream", "topic", "third");
+    }
+
+    @Test
+    public void testRecordsQueuedMessagesInOutbox() throws Exception {
+        when(descMock.isOutboxEnabled()).thenReturn(true);
+        when(zulip.recordStreamMessage("stream", "topic", "recorded")).thenReturn(42L);
+        CompletableFuture<HttpResponse<String>> sent = new CompletableFuture<>();
+        when(zulip.sendStreamMessageAsync(anyString(), anyString(), anyString(), any(long[].class))).thenReturn(sent);
+        CompletableFuture<HttpResponse<String>> result = ZulipDispatcher.get()
+                .sendStreamMessage(descMock, zulip, "stream", "topic", "recorded");
+        // Recorded before waiting in the queue, so that a restart does not lose it
+        verify(zulip).recordStreamMessage("stream", "topic", "recorded");
+        sent.complete(null);
+        assertNull(result.get());
+        verify(zulip).sendStreamMessageAsync(eq("stream"), eq("topic"), eq("recorded"), aryEq(new long[] { 42L }));
+    }
+
+}
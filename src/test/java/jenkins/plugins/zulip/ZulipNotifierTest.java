@@ -1,8 +1,12 @@
 package jenkins.plugins.zulip;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import hudson.EnvVars;
 import hudson.Launcher;
@@ -13,15 +17,23 @@ import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.User;
 import hudson.scm.ChangeLogSet;
+import hudson.tasks.junit.CaseResult;
 import hudson.tasks.test.AbstractTestResultAction;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
 
+import org.jenkinsci.plugins.workflow.actions.BodyInvocationAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.FakeChangeLogSCM;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -43,6 +55,9 @@ import static org.mockito.Mockito.when;
 
 public class ZulipNotifierTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static final int TOTAL_TEST_COUNT = 100;
     private static final int FAILED_TEST_COUNT = 50;
 
@@ -105,6 +120,9 @@ public class ZulipNotifierTest {
         when(descMock.getStream()).thenReturn("defaultStream");
         when(descMock.getTopic()).thenReturn("defaultTopic");
         when(descMock.isSmartNotify()).thenReturn(false);
+        when(descMock.getMessageTemplate()).thenReturn(null);
+        when(descMock.getStatusBoardStream()).thenReturn(null);
+        when(descMock.isStatusBoard(anyString(), anyString())).thenReturn(false);
     }
 
     @Before
@@ -296,11 +314,162 @@ public class ZulipNotifierTest {
         assertEquals(5, zulipConstruction.constructed().size());
     }
 
+    @Test
+    public void testSingleMessageEditsStartedMessage() throws Exception {
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setSingleMessage(true);
+        when(build.getResult()).thenReturn(Result.SUCCESS);
+        when(build.getAction(ZulipMessageAction.class))
+                .thenReturn(new ZulipMessageAction("defaultStream", "defaultTopic", 42));
+        notifier.perform(build, (Launcher) null, buildListener);
+        Zulip zulip = zulipConstruction.constructed().get(0);
+        verify(zulip).updateMessageAsync(Mockito.eq(42L), messageCaptor.capture());
+        verify(zulip, Mockito.never()).sendStreamMessageAsync(anyString(), anyString(), anyString());
+        assertEquals("**Project: **TestJob : **Build: **#1: **SUCCESS** :check_mark:", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testSingleMessageShowsStartedStage() throws Exception {
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setSingleMessage(true);
+        ZulipMessageAction messageAction = new ZulipMessageAction("defaultStream", "defaultTopic", 42);
+        when(build.getAction(ZulipMessageAction.class)).thenReturn(messageAction);
+        notifier.perform(build, (Launcher) null, buildListener);
+
+        FlowNode stage = Mockito.mock(FlowNode.class);
+        when(stage.getDisplayFunctionName()).thenReturn("stage");
+        when(stage.getAction(LabelAction.class)).thenReturn(new LabelAction("Deploy"));
+        FlowExecutionOwner owner = Mockito.mock(FlowExecutionOwner.class);
+        when(owner.getExecutable()).thenReturn(build);
+        FlowExecution execution = Mockito.mock(FlowExecution.class);
+        when(execution.getOwner()).thenReturn(owner);
+        FlowNode body = Mockito.mock(FlowNode.class);
+        when(body.getAction(BodyInvocationAction.class)).thenReturn(new BodyInvocationAction());
+        when(body.getParents()).thenReturn(Arrays.asList(stage));
+        when(body.getExecution()).thenReturn(execution);
+        new ZulipStageListener().onNewHead(body);
+
+        verify(zulipConstruction.constructed().get(1)).updateMessageAsync(Mockito.eq(42L), messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **SUCCESS** :check_mark:\n\n"
+                + ":hourglass: Stage **Deploy** running", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testSingleMessageDoesNotWaitForStartedMessage() throws Exception {
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setSingleMessage(true);
+        when(build.getResult()).thenReturn(Result.FAILURE);
+        CompletableFuture<Long> startedMessageId = new CompletableFuture<>();
+        when(build.getAction(ZulipMessageAction.class))
+                .thenReturn(new ZulipMessageAction("defaultStream", "defaultTopic", startedMessageId));
+        notifier.perform(build, (Launcher) null, buildListener);
+        Zulip zulip = zulipConstruction.constructed().get(0);
+        verify(zulip, Mockito.never()).updateMessageAsync(Mockito.anyLong(), anyString());
+
+        startedMessageId.complete(42L);
+        verify(zulip).updateMessageAsync(Mockito.eq(42L), messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **FAILURE** :cross_mark:", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testSingleMessageEditsStartedMessageOfBuildOnStatusBoard() throws Exception {
+        when(jenkins.getRootDir()).thenReturn(folder.getRoot());
+        when(descMock.getStatusBoardStream()).thenReturn("defaultStream");
+        when(descMock.isStatusBoard("defaultStream", "defaultTopic")).thenReturn(true);
+        when(descMock.getStatusBoardDebounce()).thenReturn(3600);
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setSingleMessage(true);
+        when(build.getResult()).thenReturn(Result.SUCCESS);
+        when(build.getAction(ZulipMessageAction.class))
+                .thenReturn(new ZulipMessageAction("defaultStream", "defaultTopic", 42));
+        notifier.perform(build, (Launcher) null, buildListener);
+        // The first sender updates the status board
+        Zulip zulip = zulipConstruction.constructed().get(1);
+        verify(zulip).updateMessageAsync(Mockito.eq(42L), messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **SUCCESS** :check_mark:", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testCustomTemplate() throws Exception {
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setTemplate("${icon} ${result} after ${duration}${^changes}, no changes${/changes} ${unknown}");
+        when(build.getResult()).thenReturn(Result.FAILURE);
+        when(build.getDurationString()).thenReturn("1 min 5 sec");
+        notifier.perform(build, (Launcher) null, buildListener);
+        verify(zulipConstruction.constructed().get(0)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals(":cross_mark: FAILURE after 1 min 5 sec, no changes ${unknown}", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testGlobalTemplate() throws Exception {
+        ZulipNotifier notifier = new ZulipNotifier();
+        when(descMock.getMessageTemplate()).thenReturn("${build} ${#success}passed${/success}");
+        notifier.perform(build, (Launcher) null, buildListener);
+        verify(zulipConstruction.constructed().get(0)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals("#1 passed", messageCaptor.getValue());
+    }
+
+    @Test
+    public void testLogExcerpt() throws Exception {
+        File log = folder.newFile("log");
+        Files.write(log.toPath(), "Compiling\nERROR: broken\nBUILD FAILED\n".getBytes(StandardCharsets.UTF_8));
+        when(build.getLogFile()).thenReturn(log);
+        when(build.getCharset()).thenReturn(StandardCharsets.UTF_8);
+        when(descMock.getLogExcerptBudget()).thenReturn(1024);
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.setLogExcerptLines(2);
+        notifier.perform(build, (Launcher) null, buildListener);
+        when(build.getResult()).thenReturn(Result.FAILURE);
+        notifier.perform(build, (Launcher) null, buildListener);
+        notifier.setLogExcerptPattern("ERROR");
+        notifier.perform(build, (Launcher) null, buildListener);
+        verify(zulipConstruction.constructed().get(0)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals("Successful build should have no excerpt", "**Project: **TestJob : **Build: **#1: **SUCCESS** :check_mark:",
+                messageCaptor.getValue());
+        verify(zulipConstruction.constructed().get(1)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **FAILURE** :cross_mark:\n\n```text\nERROR: broken\nBUILD FAILED\n```",
+                messageCaptor.getValue());
+        verify(zulipConstruction.constructed().get(2)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **FAILURE** :cross_mark:\n\n```text\nERROR: broken\n```",
+                messageCaptor.getValue());
+    }
+
+    @Test
+    public void testFailedTestSummary() throws Exception {
+        FakeTestResultAction tests = new FakeTestResultAction();
+        CaseResult failure = Mockito.mock(CaseResult.class);
+        when(failure.getFullDisplayName()).thenReturn("pkg.SomeTest.broken");
+        when(failure.getAge()).thenReturn(1);
+        tests.failedTests.add(failure);
+        when(build.getResult()).thenReturn(Result.UNSTABLE);
+        when(build.getAction(AbstractTestResultAction.class)).thenReturn(tests);
+        when(descMock.getFailedTestsMax()).thenReturn(5);
+        ZulipNotifier notifier = new ZulipNotifier();
+        notifier.perform(build, (Launcher) null, buildListener);
+        verify(zulipConstruction.constructed().get(0)).sendStreamMessage(streamCaptor.capture(), topicCaptor.capture(),
+                messageCaptor.capture());
+        assertEquals("**Project: **TestJob : **Build: **#1: **UNSTABLE** :warning: (50 broken tests)\n\n"
+                + "**Failed tests**:\n* `pkg.SomeTest.broken` *new*\n* +49 more",
+                messageCaptor.getValue());
+    }
+
     private FakeChangeLogSCM.EntryImpl createChange(String author, String msg) {
         return new FakeChangeLogSCM.EntryImpl().withAuthor(author).withMsg(msg);
     }
 
     private class FakeTestResultAction extends AbstractTestResultAction {
+        private final List<CaseResult> failedTests = new ArrayList<>();
+
+        @Override
+        public List<CaseResult> getFailedTests() {
+            return failedTests;
+        }
+
         @Override
         public int getFailCount() {
             return FAILED_TEST_COUNT;
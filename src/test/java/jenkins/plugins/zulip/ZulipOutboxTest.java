@@ -0,0 +1,77 @@
+package jenkins.plugins.zulip;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZulipOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPendingEntriesSurviveRestart() throws Exception {
+        File directory = folder.newFolder("outbox");
+        ZulipOutbox outbox = new ZulipOutbox(directory, 1024 * 1024);
+        long first = outbox.record("messages", parameters("first message"));
+        long second = outbox.record("messages", parameters("second message & more"));
+        outbox.complete(first);
+        outbox.flush();
+
+        ZulipOutbox reloaded = new ZulipOutbox(directory, 1024 * 1024);
+        reloaded.load();
+        List<ZulipOutbox.Entry> pending = new ArrayList<>(reloaded.getPending());
+        assertEquals(1, pending.size());
+        ZulipOutbox.Entry entry = pending.get(0);
+        assertEquals(second, entry.getId());
+        assertEquals("messages", entry.getMethod());
+        assertEquals("second message & more", entry.getParameters().get("content"));
+        assertEquals("stream", entry.getParameters().get("to"));
+        assertFalse("Credentials must not be stored", entry.getParameters().containsKey("api-key"));
+        assertFalse("Credentials must not be stored", entry.getParameters().containsKey("email"));
+
+        // New entries must not reuse ids of loaded ones
+        assertTrue(reloaded.record("messages", parameters("third")) > second);
+    }
+
+    @Test
+    public void testRotationCompactsCompletedEntries() throws Exception {
+        File directory = folder.newFolder("outbox");
+        ZulipOutbox outbox = new ZulipOutbox(directory, 512);
+        long kept = outbox.record("messages", parameters("kept"));
+        outbox.flush();
+        for (int i = 0; i < 50; i++) {
+            outbox.complete(outbox.record("messages", parameters("message " + i)));
+            outbox.flush();
+        }
+        File[] segments = directory.listFiles();
+        assertTrue("Old segments should be deleted", segments != null && segments.length == 1);
+
+        ZulipOutbox reloaded = new ZulipOutbox(directory, 512);
+        reloaded.load();
+        assertEquals(1, reloaded.getPendingCount());
+        assertEquals(kept, reloaded.getPending().iterator().next().getId());
+    }
+
+    private static Map<String, String> parameters(String content) {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("api-key", "secret");
+        parameters.put("email", "jenkins-bot@zulip.com");
+        parameters.put("type", "stream");
+        parameters.put("to", "stream");
+        parameters.put("subject", "topic");
+        parameters.put("content", content);
+        return parameters;
+    }
+
+}
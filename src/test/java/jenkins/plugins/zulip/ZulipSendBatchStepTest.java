@@ -0,0 +1,160 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import hudson.EnvVars;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ZulipSendBatchStepTest {
+
+    @Mock
+    private Jenkins jenkins;
+
+    @Mock
+    private Secret secret;
+
+    @Mock
+    private DescriptorImpl descMock;
+
+    @Mock
+    private Run run;
+
+    @Mock
+    private Job job;
+
+    @Mock
+    private TaskListener taskListener;
+
+    @Mock
+    private StepContext context;
+
+    private final Map<String, CompletableFuture<HttpResponse<String>>> sent = new HashMap<>();
+
+    private HttpResponse<String> immediate;
+
+    private MockedConstruction<Zulip> zulipConstruction;
+    private MockedStatic<Jenkins> jenkinsStatic;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+
+        zulipConstruction = Mockito.mockConstruction(Zulip.class, (zulip, context) -> {
+            when(zulip.sendStreamMessageAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+                if (immediate != null) {
+                    return CompletableFuture.completedFuture(immediate);
+                }
+                CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+                sent.put(invocation.getArgument(2), result);
+                return result;
+            });
+        });
+
+        jenkinsStatic = Mockito.mockStatic(Jenkins.class);
+        jenkinsStatic.when(Jenkins::get).thenReturn(jenkins);
+
+        when(jenkins.getDescriptorByType(DescriptorImpl.class)).thenReturn(descMock);
+        when(descMock.getUrl()).thenReturn("zulipUrl");
+        when(descMock.getEmail()).thenReturn("jenkins-bot@zulip.com");
+        when(descMock.getApiKey()).thenReturn(secret);
+        when(descMock.getStream()).thenReturn("defaultStream");
+        when(descMock.getTopic()).thenReturn("defaultTopic");
+        when(run.getParent()).thenReturn(job);
+        when(job.getDisplayName()).thenReturn("TestJob");
+        when(context.get(Run.class)).thenReturn(run);
+        when(context.get(TaskListener.class)).thenReturn(taskListener);
+        when(context.get(EnvVars.class)).thenReturn(new EnvVars("MODULE", "core"));
+    }
+
+    @After
+    public void tearDown() {
+        zulipConstruction.close();
+        jenkinsStatic.close();
+    }
+
+    @Test
+    public void testSendsWithBoundedParallelism() throws Exception {
+        ZulipSendBatchStep step = new ZulipSendBatchStep(Arrays.asList(entry("stream", "${MODULE}", "first"),
+                entry(null, null, "second"), entry(null, "topic", "third")));
+        step.setParallelism(2);
+        assertFalse("Should not complete synchronously", step.start(context).start());
+        Zulip zulip = zulipConstruction.constructed().get(0);
+        assertEquals("Should use one client for the whole batch", 1, zulipConstruction.constructed().size());
+        verify(zulip).sendStreamMessageAsync("stream", "core", "first");
+        verify(zulip).sendStreamMessageAsync("defaultStream", "defaultTopic", "second");
+        verify(zulip, never()).sendStreamMessageAsync("defaultStream", "topic", "third");
+        sent.get("second").complete(response(200));
+        verify(zulip).sendStreamMessageAsync("defaultStream", "topic", "third");
+        sent.get("third").complete(response(400));
+        verify(context, never()).onSuccess(any());
+        sent.get("first").complete(null);
+        Map<Integer, String> expected = new HashMap<>();
+        expected.put(0, "NOT_SENT");
+        expected.put(1, "SENT");
+        expected.put(2, "FAILED");
+        verify(context).onSuccess(expected);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMessagesCompletingImmediately() throws Exception {
+        // Every message completes on the sending thread, which must not recurse once per message
+        immediate = response(200);
+        List<ZulipSendBatchStep.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(entry(null, null, "message " + i));
+        }
+        ZulipSendBatchStep step = new ZulipSendBatchStep(entries);
+        step.setParallelism(4);
+        step.start(context).start();
+        ArgumentCaptor<Map<Integer, String>> result = ArgumentCaptor.forClass(Map.class);
+        verify(context).onSuccess(result.capture());
+        assertEquals(5000, result.getValue().size());
+        assertEquals("SENT", result.getValue().get(4999));
+    }
+
+    private static ZulipSendBatchStep.Entry entry(String stream, String topic, String message) {
+        ZulipSendBatchStep.Entry entry = new ZulipSendBatchStep.Entry();
+        entry.setStream(stream);
+        entry.setTopic(topic);
+        entry.setMessage(message);
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int status) {
+        HttpResponse<String> response = Mockito.mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        return response;
+    }
+
+}
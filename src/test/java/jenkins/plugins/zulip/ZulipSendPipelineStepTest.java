@@ -0,0 +1,153 @@
+package jenkins.plugins.zulip;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import hudson.EnvVars;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ZulipSendPipelineStepTest {
+
+    @Mock
+    private Jenkins jenkins;
+
+    @Mock
+    private Secret secret;
+
+    @Mock
+    private DescriptorImpl descMock;
+
+    @Mock
+    private Run run;
+
+    @Mock
+    private Job job;
+
+    @Mock
+    private TaskListener taskListener;
+
+    @Mock
+    private StepContext context;
+
+    @Mock
+    private HttpResponse<String> response;
+
+    private final CompletableFuture<HttpResponse<String>> sent = new CompletableFuture<>();
+
+    private final List<Runnable> background = new ArrayList<>();
+
+    private MockedConstruction<Zulip> zulipConstruction;
+    private MockedStatic<Jenkins> jenkinsStatic;
+    private Executor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+
+        zulipConstruction = Mockito.mockConstruction(Zulip.class, (zulip, context) -> {
+            when(zulip.sendStreamMessageAsync(anyString(), anyString(), anyString())).thenReturn(sent);
+        });
+
+        jenkinsStatic = Mockito.mockStatic(Jenkins.class);
+        jenkinsStatic.when(Jenkins::get).thenReturn(jenkins);
+
+        when(jenkins.getDescriptorByType(DescriptorImpl.class)).thenReturn(descMock);
+        when(descMock.getUrl()).thenReturn("zulipUrl");
+        when(descMock.getEmail()).thenReturn("jenkins-bot@zulip.com");
+        when(descMock.getApiKey()).thenReturn(secret);
+        when(descMock.getStream()).thenReturn("defaultStream");
+        when(descMock.getTopic()).thenReturn("defaultTopic");
+        when(run.getParent()).thenReturn(job);
+        when(job.getDisplayName()).thenReturn("TestJob");
+        EnvVars environment = new EnvVars("BRANCH", "main");
+        when(context.get(Run.class)).thenReturn(run);
+        when(context.get(TaskListener.class)).thenReturn(taskListener);
+        when(context.get(EnvVars.class)).thenReturn(environment);
+        when(response.statusCode()).thenReturn(200);
+        executor = ZulipSendPipelineStep.Execution.executor;
+        ZulipSendPipelineStep.Execution.executor = background::add;
+    }
+
+    @After
+    public void tearDown() {
+        ZulipSendPipelineStep.Execution.executor = executor;
+        zulipConstruction.close();
+        jenkinsStatic.close();
+    }
+
+    private void runBackground() {
+        for (Runnable command : background) {
+            command.run();
+        }
+        background.clear();
+    }
+
+    @Test
+    public void testCompletesWhenZulipResponds() throws Exception {
+        ZulipSendPipelineStep step = new ZulipSendPipelineStep();
+        step.setTopic("Build of ${BRANCH}");
+        step.setMessage("message");
+        assertFalse("Should not complete synchronously", step.start(context).start());
+        verify(zulipConstruction.constructed().get(0), never()).sendStreamMessageAsync(anyString(), anyString(),
+                anyString());
+        runBackground();
+        verify(zulipConstruction.constructed().get(0)).sendStreamMessageAsync("defaultStream", "Build of main",
+                "message");
+        verify(context, never()).onSuccess(any());
+        sent.complete(response);
+        verify(context).onSuccess(null);
+    }
+
+    @Test
+    public void testStopIgnoresLateResponse() throws Exception {
+        ZulipSendPipelineStep step = new ZulipSendPipelineStep();
+        step.setMessage("message");
+        StepExecution execution = step.start(context);
+        assertFalse(execution.start());
+        runBackground();
+        Exception cause = new Exception("aborted");
+        execution.stop(cause);
+        verify(context).onFailure(cause);
+        sent.complete(response);
+        verify(context, never()).onSuccess(any());
+    }
+
+    @Test
+    public void testFireAndForget() throws Exception {
+        ZulipSendPipelineStep step = new ZulipSendPipelineStep();
+        step.setMessage("message");
+        step.setFireAndForget(true);
+        assertTrue("Should complete without waiting for Zulip", step.start(context).start());
+        verify(context).onSuccess(null);
+        runBackground();
+        sent.complete(response);
+        verify(context).onSuccess(null);
+    }
+
+}
@@ -1,7 +1,13 @@
 package jenkins.plugins.zulip;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import hudson.EnvVars;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
 
 import org.junit.After;
@@ -16,6 +22,8 @@ import org.mockito.MockitoAnnotations;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ZulipUtilTest {
@@ -177,4 +185,24 @@ public class ZulipUtilTest {
         assertEquals("MyJobName", ZulipUtil.displayItem(itemMock, descMock, false, false));
     }
 
+    @Test
+    public void testExpandVariablesSeesChangedEnvironment() throws Exception {
+        Run<?, ?> run = Mockito.mock(Run.class);
+        TaskListener listener = Mockito.mock(TaskListener.class);
+        // Variables of an action, which Pipeline env.STREAM = '...' changes in place
+        Map<String, String> contributed = new HashMap<>();
+        contributed.put("STREAM", "builds");
+        when(run.getEnvironment(listener)).thenAnswer(invocation -> new EnvVars(contributed));
+
+        assertEquals("builds", ZulipUtil.expandVariables(run, listener, "${STREAM}"));
+        contributed.put("STREAM", "releases");
+        assertEquals("releases", ZulipUtil.expandVariables(run, listener, "${STREAM}"));
+
+        // A single notification expands all its values with the same environment
+        EnvVars environment = ZulipUtil.getEnvironment(run, listener);
+        assertEquals("releases", ZulipUtil.expandVariables(environment, "${STREAM}"));
+        assertEquals("releases/builds", ZulipUtil.expandVariables(environment, "$STREAM/builds"));
+        verify(run, times(3)).getEnvironment(listener);
+    }
+
 }